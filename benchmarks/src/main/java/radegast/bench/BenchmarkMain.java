@@ -0,0 +1,23 @@
+package radegast.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs the benchmarks like the normal JMH launcher, but the GC profiler is always added, so allocated bytes per
+// operation ("gc.alloc.rate.norm") are reported next to the throughput. All JMH options can be given, e.g.
+// "-p size=1024 -rf json -rff baseline.json".
+public class BenchmarkMain {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine).addProfiler(GCProfiler.class);
+        if (commandLine.getIncludes().isEmpty()) {
+            options.include(StageBenchmark.class.getSimpleName());
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,119 @@
+package radegast.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+// The solver classes are in the default package, which can't be imported from a named package, and JMH doesn't
+// accept benchmarks in the default package. So the stages are called through method handles. They are static final,
+// so the JIT compiler inlines them like normal calls.
+final class Pipeline {
+    private static final MethodHandle LOAD;
+    private static final MethodHandle FROM_ARRAY;
+    private static final MethodHandle NEW_WATER_CALCULATOR;
+    private static final MethodHandle CALCULATE_WATER_LEVELS;
+    private static final MethodHandle NEW_NAME_CALCULATOR;
+    private static final MethodHandle CALCULATE_NAMES;
+    private static final MethodHandle FINAL_MAP;
+    private static final Class<?> WATER_ENGINE;
+    private static final Class<?> NAME_ENGINE;
+
+    static {
+        try {
+            ClassLoader loader = Pipeline.class.getClassLoader();
+            Class<?> gameMap = Class.forName("GameMap", true, loader);
+            Class<?> waterCalculator = Class.forName("WaterCalculator", true, loader);
+            Class<?> nameCalculator = Class.forName("NameCalculator", true, loader);
+            WATER_ENGINE = Class.forName("WaterCalculator$Engine", true, loader);
+            NAME_ENGINE = Class.forName("NameCalculator$Engine", true, loader);
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            LOAD = lookup.findConstructor(gameMap, MethodType.methodType(void.class, String.class))
+                    .asType(MethodType.methodType(Object.class, String.class));
+            FROM_ARRAY = lookup.findConstructor(gameMap, MethodType.methodType(void.class, int[][].class))
+                    .asType(MethodType.methodType(Object.class, int[][].class));
+            NEW_WATER_CALCULATOR = lookup.findConstructor(waterCalculator,
+                            MethodType.methodType(void.class, gameMap, WATER_ENGINE))
+                    .asType(MethodType.methodType(Object.class, Object.class, Object.class));
+            CALCULATE_WATER_LEVELS = lookup.findVirtual(waterCalculator, "calculateWaterLevels",
+                            MethodType.methodType(gameMap))
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            NEW_NAME_CALCULATOR = lookup.findConstructor(nameCalculator,
+                            MethodType.methodType(void.class, gameMap, NAME_ENGINE))
+                    .asType(MethodType.methodType(Object.class, Object.class, Object.class));
+            CALCULATE_NAMES = lookup.findVirtual(nameCalculator, "calculateNames", MethodType.methodType(gameMap))
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            FINAL_MAP = lookup.findStatic(gameMap, "finalMap", MethodType.methodType(gameMap, gameMap, gameMap, gameMap))
+                    .asType(MethodType.methodType(Object.class, Object.class, Object.class, Object.class));
+        } catch (ReflectiveOperationException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private Pipeline() {
+    }
+
+    static Object waterEngine(String name) {
+        return engine(WATER_ENGINE, name);
+    }
+
+    static Object nameEngine(String name) {
+        return engine(NAME_ENGINE, name);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object engine(Class<?> type, String name) {
+        return Enum.valueOf((Class) type, name);
+    }
+
+    static Object load(String file) {
+        try {
+            return (Object) LOAD.invokeExact(file);
+        } catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    static Object map(int[][] heights) {
+        try {
+            return (Object) FROM_ARRAY.invokeExact(heights);
+        } catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    static Object waterLevels(Object map, Object engine) {
+        try {
+            Object calculator = (Object) NEW_WATER_CALCULATOR.invokeExact(map, engine);
+            return (Object) CALCULATE_WATER_LEVELS.invokeExact(calculator);
+        } catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    static Object names(Object waterMap, Object engine) {
+        try {
+            Object calculator = (Object) NEW_NAME_CALCULATOR.invokeExact(waterMap, engine);
+            return (Object) CALCULATE_NAMES.invokeExact(calculator);
+        } catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    static Object finalMap(Object waterMap, Object namesMap, Object map) {
+        try {
+            return (Object) FINAL_MAP.invokeExact(waterMap, namesMap, map);
+        } catch (Throwable ex) {
+            throw rethrow(ex);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable ex) {
+        if (ex instanceof RuntimeException) {
+            return (RuntimeException) ex;
+        }
+        if (ex instanceof Error) {
+            throw (Error) ex;
+        }
+        return new IllegalStateException(ex);
+    }
+}
@@ -0,0 +1,87 @@
+package radegast.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Every stage of the pipeline is measured on its own. Inputs of a stage are calculated once in setup with the stages
+// before it. FRAME_SWEEP is not in the default engines because it is too slow for big terrains, it can be selected
+// with "-p waterEngine=FRAME_SWEEP".
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StageBenchmark {
+    @Param({"10", "64", "256", "1024", "4096"})
+    public int size;
+
+    @Param({"NOISE", "PITS", "RINGS", "SPIRAL"})
+    public Terrains.Shape shape;
+
+    @Param({"PRIORITY_FLOOD", "PARALLEL_FLOOD"})
+    public String waterEngine;
+
+    @Param({"UNION_FIND"})
+    public String nameEngine;
+
+    private Path file;
+    private Object map;
+    private Object waterMap;
+    private Object namesMap;
+    private Object water;
+    private Object names;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        int[][] heights = Terrains.generate(shape, size);
+        file = Files.createTempFile("terrain", ".txt");
+        Terrains.writeText(heights, file);
+        water = Pipeline.waterEngine(waterEngine);
+        names = Pipeline.nameEngine(nameEngine);
+        map = Pipeline.map(heights);
+        waterMap = Pipeline.waterLevels(map, water);
+        namesMap = Pipeline.names(waterMap, names);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public Object parse() {
+        return Pipeline.load(file.toString());
+    }
+
+    @Benchmark
+    public Object waterLevels() {
+        return Pipeline.waterLevels(map, water);
+    }
+
+    @Benchmark
+    public Object names() {
+        return Pipeline.names(waterMap, names);
+    }
+
+    @Benchmark
+    public Object finalMap() {
+        return Pipeline.finalMap(waterMap, namesMap, map);
+    }
+}
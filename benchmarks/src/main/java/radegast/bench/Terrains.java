@@ -0,0 +1,76 @@
+package radegast.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+// Synthetic square terrains for the benchmarks. Every shape is deterministic for a given size, so results of
+// different runs can be compared.
+public final class Terrains {
+    public enum Shape {
+        // Random heights between 0 and 9.
+        NOISE,
+        // Pits of height 0 surrounded by walls of height 1, like input2.txt.
+        PITS,
+        // Square rings. Every second ring is a wall that is higher than the outer one, so every moat is a lake.
+        RINGS,
+        // Rings with one door in every wall. Doors change sides, so the moats become one long spiral basin.
+        SPIRAL
+    }
+
+    private Terrains() {
+    }
+
+    static int[][] generate(Shape shape, int size) {
+        int[][] heights = new int[size][size];
+        Random random = new Random(size);
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                int layer = Math.min(Math.min(row, column), Math.min(size - 1 - row, size - 1 - column));
+                switch (shape) {
+                    case NOISE:
+                        heights[row][column] = random.nextInt(10);
+                        break;
+                    case PITS:
+                        heights[row][column] = row % 2 == 1 && column % 2 == 1 ? 0 : 1;
+                        break;
+                    case RINGS:
+                        heights[row][column] = layer % 2 == 0 ? layer + 2 : 0;
+                        break;
+                    default:
+                        heights[row][column] = layer % 2 == 0 && !isDoor(row, column, layer, size) ? 9 : 0;
+                        break;
+                }
+            }
+        }
+        return heights;
+    }
+
+    // The outer wall has no door. Inner walls have their door in the middle of the top or the bottom side.
+    private static boolean isDoor(int row, int column, int layer, int size) {
+        if (layer == 0 || column != size / 2) {
+            return false;
+        }
+        return (layer / 2) % 2 == 0 ? row == layer : row == size - 1 - layer;
+    }
+
+    // Writes the terrain in the text input format without modifications.
+    static void writeText(int[][] heights, Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+            writer.write(heights[0].length + " " + heights.length);
+            writer.newLine();
+            for (int[] row : heights) {
+                for (int column = 0; column < row.length; column++) {
+                    if (column > 0) {
+                        writer.write(' ');
+                    }
+                    writer.write(Integer.toString(row[column]));
+                }
+                writer.newLine();
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BandSolverTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void givesTheSameWaterAndLakesAsTheReferenceEngines() throws IOException {
+        int[][] sizes = {{3, 3}, {25, 31}, {70, 45}};
+        for (TerrainGenerator.Shape shape : TerrainGenerator.Shape.values()) {
+            for (int[] size : sizes) {
+                TerrainGenerator generator = new TerrainGenerator(shape, size[0], size[1], 3);
+                Path input = directory.resolve("map.trw");
+                generator.writeBinary(input.toString(), generator.stones(5));
+                for (int bandRows : new int[]{3, 7, 0}) {
+                    check(input, bandRows, shape + " " + size[0] + " x " + size[1] + ", bands of " + bandRows);
+                }
+            }
+        }
+    }
+
+    private void check(Path input, int bandRows, String message) throws IOException {
+        GameMap map = GameMap.fromBinary(input.toString());
+        Grid heights = Grid.onHeap(map.getHeightGrid().getRowNumber(), map.getHeightGrid().getColumnNumber());
+        heights.copyFrom(map.getHeightGrid());
+        for (int stone : map.getModifications()) {
+            heights.set(stone, heights.get(stone) + 1);
+        }
+        GameMap walls = new GameMap(heights);
+        GameMap water = TestMaps.water(walls);
+        GameMap names = TestMaps.names(water);
+        GameMap finalMap = GameMap.finalMap(water, names, walls);
+
+        Path output = directory.resolve("map.out");
+        BandSolver.Result result = new BandSolver(input.toString(), output.toString(), bandRows).solve();
+        int cells = heights.size();
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.READ)) {
+            IntBuffer values = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            assertEquals(BandSolver.OUTPUT_MAGIC, values.get(0), message);
+            Grid depths = Grid.onHeap(heights.getRowNumber(), heights.getColumnNumber());
+            Grid lakes = Grid.onHeap(heights.getRowNumber(), heights.getColumnNumber());
+            for (int i = 0; i < cells; i++) {
+                depths.set(i, values.get(4 + i));
+                lakes.set(i, values.get(4 + cells + i));
+            }
+            if (heights.getRowNumber() > 2 && heights.getColumnNumber() > 2) {
+                TestMaps.assertSameGrid(water.getHeightGrid(), depths, message + ", depths");
+                TestMaps.assertSameGrid(names.getLakeGrid(), lakes, message + ", lakes");
+                assertEquals(finalMap.getScore(), result.score, 1e-6, message + ", score");
+                assertEquals(finalMap.getLakeIndex().getLakeCount(), result.lakes, message + ", lake count");
+            }
+        }
+    }
+}
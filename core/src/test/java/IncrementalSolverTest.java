@@ -0,0 +1,59 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class IncrementalSolverTest {
+    @Test
+    void givesTheSameResultAsSolvingAgainAfterEachStone() {
+        Random random = new Random(11);
+        for (GameMap map : TestMaps.generated()) {
+            Grid heights = map.getHeightGrid();
+            if (heights.getRowNumber() <= 2 || heights.getColumnNumber() <= 2) {
+                continue;
+            }
+            IncrementalSolver solver = new IncrementalSolver(copy(map));
+            IncrementalSolver overlay = solver.copy().overlay();
+            IncrementalSolver trial = solver.copy();
+            trial.keepUndoLog();
+            for (int stone = 0; stone < 10; stone++) {
+                int cell = random.nextInt(heights.size());
+                solver.addStone(cell);
+                overlay.addStone(cell);
+                String message = TestMaps.describe(heights) + ", stone " + stone;
+                check(solver, message);
+                check(overlay, message + " on an overlay");
+                // Two stones are tried and taken back, then the stone is added and kept.
+                trial.addStone(random.nextInt(heights.size()));
+                trial.addStone(cell);
+                check(trial, message + " with a stone which is taken back");
+                if (trial.undo()) {
+                    trial.addStone(cell);
+                    trial.keepUndoLog();
+                } else {
+                    // The stones changed too many squares for the log.
+                    trial.copyFrom(solver);
+                }
+                TestMaps.assertSameGrid(solver.getHeightGrid(), trial.getHeightGrid(), message + " after undo, heights");
+                check(trial, message + " after undo");
+            }
+        }
+    }
+
+    private static GameMap copy(GameMap map) {
+        Grid heights = map.getHeightGrid().blank();
+        heights.copyFrom(map.getHeightGrid());
+        return new GameMap(heights);
+    }
+
+    private static void check(IncrementalSolver solver, String message) {
+        GameMap walls = copy(new GameMap(solver.getHeightGrid()));
+        GameMap water = TestMaps.water(walls);
+        GameMap names = TestMaps.names(water);
+        GameMap finalMap = GameMap.finalMap(water, names, walls);
+        TestMaps.assertSameGrid(water.getHeightGrid(), solver.getWaterMap().getHeightGrid(), message + ", water");
+        TestMaps.assertSameGrid(finalMap.getLakeGrid(), solver.getFinalMap().getLakeGrid(), message + ", lakes");
+        assertEquals(finalMap.getScore(), solver.getScore(), 1e-6, message + ", score");
+    }
+}
@@ -0,0 +1,16 @@
+import org.junit.jupiter.api.Test;
+
+class ParallelFloodTest {
+    @Test
+    void givesTheSameWaterAsThePriorityFlood() {
+        for (GameMap map : TestMaps.generated()) {
+            Grid expected = TestMaps.water(map).getHeightGrid();
+            for (int threads = 1; threads <= 4; threads++) {
+                Grid actual = new WaterCalculator(map, WaterCalculator.Engine.PARALLEL_FLOOD, threads)
+                        .calculateWaterLevels().getHeightGrid();
+                TestMaps.assertSameGrid(expected, actual,
+                        TestMaps.describe(map.getHeightGrid()) + " with " + threads + " threads");
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class RunLengthTest {
+    @Test
+    void givesTheSameWaterAndLakesAsDenseGrids() {
+        for (GameMap map : TestMaps.generated()) {
+            check(map);
+            check(plateaus(map));
+        }
+    }
+
+    // Heights divided by 20, so fractal maps get wide plateaus with many runs of the same height.
+    private static GameMap plateaus(GameMap map) {
+        Grid heights = map.getHeightGrid().blank();
+        for (int i = 0; i < heights.size(); i++) {
+            heights.set(i, map.getHeightGrid().get(i) / 20);
+        }
+        return new GameMap(heights);
+    }
+
+    private static void check(GameMap map) {
+        String message = TestMaps.describe(map.getHeightGrid());
+        GameMap water = TestMaps.water(map);
+        GameMap names = TestMaps.names(water);
+        GameMap runs = new GameMap(RunLengthGrid.of(map.getHeightGrid()));
+        for (WaterCalculator.Engine engine : new WaterCalculator.Engine[]{WaterCalculator.Engine.PRIORITY_FLOOD,
+                WaterCalculator.Engine.PARALLEL_FLOOD}) {
+            GameMap runWater = new WaterCalculator(runs, engine).calculateWaterLevels();
+            if (map.getHeightGrid().getRowNumber() > 2 && map.getHeightGrid().getColumnNumber() > 2) {
+                assertTrue(runWater.getHeightGrid() instanceof RunLengthGrid, message);
+            }
+            TestMaps.assertSameGrid(water.getHeightGrid(), runWater.getHeightGrid(), message + " " + engine);
+            GameMap runNames = TestMaps.names(runWater);
+            TestMaps.assertSameGrid(names.getLakeGrid(), runNames.getLakeGrid(), message + " lakes");
+        }
+    }
+}
@@ -0,0 +1,25 @@
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+class TerrainGeneratorTest {
+    @Test
+    @Timeout(value = 60, unit = TimeUnit.SECONDS)
+    void diagonalLeaksMakeTheFrameSweepGoBackMoreOnBiggerMaps() {
+        for (long seed = 1; seed <= 3; seed++) {
+            long previous = 0;
+            for (int columns : new int[]{60, 120, 240, 480}) {
+                GameMap map = TestMaps.generate(TerrainGenerator.Shape.DIAGONAL_LEAKS, columns, columns * 3 / 4, seed);
+                WaterCalculator calculator = new WaterCalculator(map, WaterCalculator.Engine.FRAME_SWEEP);
+                calculator.calculateWaterLevels();
+                long restarts = calculator.getGoOuterRestarts();
+                assertTrue(restarts > previous, "seed " + seed + ", " + columns + " columns: " + restarts
+                        + " restarts, " + previous + " on the smaller map");
+                previous = restarts;
+            }
+        }
+    }
+}
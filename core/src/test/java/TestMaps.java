@@ -0,0 +1,60 @@
+// This class makes the maps of the tests and solves them with the reference engines: the priority flood of
+// WaterCalculator and the union-find engine of NameCalculator. Other engines are checked against these results square
+// by square.
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+final class TestMaps {
+    private TestMaps() {
+    }
+
+    // Maps of every shape of TerrainGenerator. Sizes are chosen so that the parallel flood and BandSolver split them
+    // into several tiles and bands, and some of them are not square.
+    static List<GameMap> generated() {
+        List<GameMap> maps = new ArrayList<>();
+        int[][] sizes = {{3, 3}, {7, 4}, {25, 31}, {70, 45}, {130, 97}};
+        for (TerrainGenerator.Shape shape : TerrainGenerator.Shape.values()) {
+            for (int[] size : sizes) {
+                for (long seed = 1; seed <= 2; seed++) {
+                    maps.add(generate(shape, size[0], size[1], seed));
+                }
+            }
+        }
+        return maps;
+    }
+
+    static GameMap generate(TerrainGenerator.Shape shape, int columns, int rows, long seed) {
+        TerrainGenerator generator = new TerrainGenerator(shape, columns, rows, seed);
+        int[][] heights = new int[rows][columns];
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                heights[row][column] = generator.height(row, column);
+            }
+        }
+        return new GameMap(heights);
+    }
+
+    static GameMap water(GameMap map) {
+        return new WaterCalculator(map, WaterCalculator.Engine.PRIORITY_FLOOD).calculateWaterLevels();
+    }
+
+    static GameMap names(GameMap water) {
+        return new NameCalculator(water, NameCalculator.Engine.UNION_FIND).calculateNames();
+    }
+
+    static String describe(Grid grid) {
+        return grid.getColumnNumber() + " x " + grid.getRowNumber();
+    }
+
+    static void assertSameGrid(Grid expected, Grid actual, String message) {
+        assertEquals(expected.getRowNumber(), actual.getRowNumber(), message + ": rows");
+        assertEquals(expected.getColumnNumber(), actual.getColumnNumber(), message + ": columns");
+        for (int i = 0; i < expected.size(); i++) {
+            int row = i / expected.getColumnNumber();
+            int column = i % expected.getColumnNumber();
+            assertEquals(expected.get(i), actual.get(i), message + ": square (" + row + ", " + column + ")");
+        }
+    }
+}
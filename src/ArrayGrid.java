@@ -0,0 +1,38 @@
+// This class is a grid which keeps its numbers in a single int[] on the heap.
+public class ArrayGrid extends Grid {
+    private final int[] values;
+
+    public ArrayGrid(int rowNumber, int columnNumber) {
+        super(rowNumber, columnNumber);
+        values = new int[rowNumber * columnNumber];
+    }
+
+    @Override
+    public int get(int index) {
+        return values[index];
+    }
+
+    @Override
+    public void set(int index, int value) {
+        values[index] = value;
+    }
+
+    @Override
+    public void copyFrom(Grid source) {
+        if (source instanceof ArrayGrid && source.size() == size() && source.getColumnNumber() == columnNumber) {
+            System.arraycopy(((ArrayGrid) source).values, 0, values, 0, values.length);
+        } else {
+            super.copyFrom(source);
+        }
+    }
+
+    // The numbers themselves, not a copy. It is used by GridKernels.
+    int[] array() {
+        return values;
+    }
+
+    @Override
+    public Grid blank() {
+        return new ArrayGrid(rowNumber, columnNumber);
+    }
+}
@@ -0,0 +1,546 @@
+// This class solves binary terrain files which are too big for the heap. Usage:
+// java BandSolver <input.trw> <output> [rows of a band]
+// The terrain is read in horizontal bands from the memory-mapped file, and only one band is on the heap at a time.
+// Two neighbour bands share one row, which is called a boundary row. Water can't go from one band to another without
+// passing a square of a boundary row, so if the water levels of the boundary rows are known, each band can be solved
+// alone. They are found in three passes over the file:
+// 1. Each band is flooded from its boundary rows and the edges of the map, and the flood of each square remembers the
+//    square it started from. When two floods meet, the boundary squares they started from are joined by an edge whose
+//    height is the water level where they meet. Only the edges of a spanning tree are kept, so there are fewer edges
+//    than boundary squares. Water levels of the boundary rows are the lowest way out of the map in this graph, and they
+//    are found with one more flood over the graph.
+// 2. Each band is flooded again from the levels of its boundary rows, and the water depths are written to the output.
+//    Lakes which touch a boundary row are joined with union-find over the boundary squares.
+// 3. Depths are read back from the output, and lakes are numbered in the order of their first squares like
+//    NameCalculator does, so a lake which goes through many bands gets one number. A lake which doesn't touch a
+//    boundary row is added to the score in its band. Only the volumes of the other lakes are kept until the end.
+// The heap holds a few arrays of the size of a band and a few arrays of the size of the boundary rows, never an array
+// of the size of the map. Stones in the Modifications section of the file are added to the heights.
+// The output starts with a header of four little-endian ints: OUTPUT_MAGIC, column number, row number and number of
+// lakes. Then water depths and lake numbers (0 for no lake) of all squares follow as ints, row by row.
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class BandSolver {
+    // Output files start with this number, which is "TRWL" in ASCII.
+    static final int OUTPUT_MAGIC = 0x5452574C;
+    // Magic, column number, row number and number of lakes.
+    static final int OUTPUT_HEADER_BYTES = 4 * Integer.BYTES;
+    // Squares of a band if the number of rows is not given. A band takes about 33 bytes for each square.
+    private static final int DEFAULT_BAND_SQUARES = 1 << 22;
+    // Node of the boundary graph for the edges of the map.
+    private static final int OUTSIDE = 0;
+
+    private final Path input;
+    private final Path output;
+    private final int requestedBandRows;
+
+    private int rows;
+    private int columns;
+    private int bandRows;
+    private int bandCount;
+    private int[] stones;
+
+    // Arrays of a band, used again for each band.
+    private int[] heights;
+    private int[] levels;
+    private int[] marks;
+    private int[] parent;
+    private CellHeap heap;
+
+    // Edges of the boundary graph from the first pass. Node 1 + b * columns + c is column c of boundary row b, where
+    // boundary row b is the first row of band b + 1.
+    private int[] edgeFrom = new int[64];
+    private int[] edgeTo = new int[64];
+    private int[] edgeHeight = new int[64];
+    private int edgeCount;
+    // Number of lakes found by pass 3 so far.
+    private long lakeCount;
+
+    public static final class Result {
+        public final int rows;
+        public final int columns;
+        public final int bands;
+        public final int lakes;
+        public final double score;
+        public final long nanos;
+
+        Result(int rows, int columns, int bands, int lakes, double score, long nanos) {
+            this.rows = rows;
+            this.columns = columns;
+            this.bands = bands;
+            this.lakes = lakes;
+            this.score = score;
+            this.nanos = nanos;
+        }
+    }
+
+    // If bandRows is 0, bands of about DEFAULT_BAND_SQUARES squares are used.
+    public BandSolver(String input, String output, int bandRows) {
+        if (bandRows != 0 && bandRows < 3) {
+            throw new IllegalArgumentException("A band must have at least 3 rows");
+        }
+        this.input = Paths.get(input);
+        this.output = Paths.get(output);
+        this.requestedBandRows = bandRows;
+    }
+
+    public Result solve() throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            readHeader(in);
+            int[] boundaryLevels = boundaryLevels(in);
+            int[] lakeParent = writeDepths(in, out, boundaryLevels);
+            // Levels are not needed anymore, so the array keeps the lake numbers of the boundary lakes.
+            Arrays.fill(boundaryLevels, 0);
+            double score = writeLakes(out, lakeParent, boundaryLevels);
+            int lakes = (int) lakeCount;
+            ByteBuffer header = ByteBuffer.allocate(OUTPUT_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(OUTPUT_MAGIC).putInt(columns).putInt(rows).putInt(lakes).flip();
+            while (header.hasRemaining()) {
+                out.write(header, header.position());
+            }
+            return new Result(rows, columns, bandCount, lakes, score, System.nanoTime() - start);
+        }
+    }
+
+    private void readHeader(FileChannel in) throws IOException {
+        long size = in.size();
+        if (size < GameMap.BINARY_HEADER_BYTES) {
+            throw new IOException("Not a terrain file: " + input);
+        }
+        IntBuffer header = in.map(FileChannel.MapMode.READ_ONLY, 0, GameMap.BINARY_HEADER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        if (header.get(0) != GameMap.BINARY_MAGIC) {
+            throw new IOException("Not a terrain file: " + input);
+        }
+        columns = header.get(1);
+        rows = header.get(2);
+        int modificationCount = header.get(3);
+        long cells = (long) rows * columns;
+        if (rows <= 0 || columns <= 0 || modificationCount < 0
+                || size != GameMap.BINARY_HEADER_BYTES + (cells + modificationCount) * Integer.BYTES) {
+            throw new IOException("Wrong size for terrain file: " + input);
+        }
+        stones = new int[modificationCount];
+        in.map(FileChannel.MapMode.READ_ONLY, GameMap.BINARY_HEADER_BYTES + cells * Integer.BYTES,
+                (long) modificationCount * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(stones);
+        for (int stone : stones) {
+            if (stone < 0 || stone >= cells) {
+                throw new IOException("Wrong modification " + stone + " in " + input);
+            }
+        }
+
+        bandRows = requestedBandRows != 0 ? requestedBandRows : Math.max(3, DEFAULT_BAND_SQUARES / columns);
+        bandRows = Math.min(bandRows, rows);
+        if ((long) bandRows * columns > Integer.MAX_VALUE / Integer.BYTES) {
+            throw new IllegalArgumentException("A band of " + bandRows + " rows is too big to be mapped");
+        }
+        bandCount = rows <= bandRows ? 1 : (rows - 2) / (bandRows - 1) + 1;
+        if ((long) (bandCount - 1) * columns + 1 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many boundary squares, use bigger bands");
+        }
+        int squares = bandRows * columns;
+        heights = new int[squares];
+        levels = new int[squares];
+        marks = new int[squares];
+        parent = new int[squares];
+        heap = new CellHeap(2 * columns + 2 * bandRows);
+    }
+
+    private int firstRow(int band) {
+        return band * (bandRows - 1);
+    }
+
+    private int lastRow(int band) {
+        return band == bandCount - 1 ? rows - 1 : firstRow(band + 1);
+    }
+
+    private boolean isEdge(int row, int column) {
+        return row == 0 || row == rows - 1 || column == 0 || column == columns - 1;
+    }
+
+    // Node of column c in the first row of the band, or in the last row if c is moved by columns.
+    private int node(int band, int column) {
+        return 1 + (band - 1) * columns + column;
+    }
+
+    // Reads the heights of a band and adds its stones.
+    private void readBand(FileChannel in, int band) throws IOException {
+        int first = firstRow(band);
+        int squares = (lastRow(band) - first + 1) * columns;
+        long offset = GameMap.BINARY_HEADER_BYTES + (long) first * columns * Integer.BYTES;
+        in.map(FileChannel.MapMode.READ_ONLY, offset, (long) squares * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN)
+                .asIntBuffer().get(heights, 0, squares);
+        long from = (long) first * columns;
+        for (int stone : stones) {
+            if (stone >= from && stone < from + squares) {
+                heights[(int) (stone - from)]++;
+            }
+        }
+    }
+
+    // Pass 1: returns the water levels of the boundary squares. Index 0 is not used.
+    private int[] boundaryLevels(FileChannel in) throws IOException {
+        // Parents of the starting squares of a band: 0 for the edges of the map, 1 + c for column c of the first row
+        // and 1 + columns + c for column c of the last row.
+        int[] startParent = new int[1 + 2 * columns];
+        for (int band = 0; band < bandCount; band++) {
+            readBand(in, band);
+            floodBand(band, startParent);
+        }
+        int nodes = 1 + (bandCount - 1) * columns;
+        // Edges are kept in both directions, grouped by their first node.
+        int[] offsets = new int[nodes + 1];
+        for (int i = 0; i < edgeCount; i++) {
+            offsets[edgeFrom[i] + 1]++;
+            offsets[edgeTo[i] + 1]++;
+        }
+        for (int node = 0; node < nodes; node++) {
+            offsets[node + 1] += offsets[node];
+        }
+        int[] next = Arrays.copyOf(offsets, nodes);
+        int[] targets = new int[2 * edgeCount];
+        int[] edgeHeights = new int[2 * edgeCount];
+        for (int i = 0; i < edgeCount; i++) {
+            targets[next[edgeFrom[i]]] = edgeTo[i];
+            edgeHeights[next[edgeFrom[i]]++] = edgeHeight[i];
+            targets[next[edgeTo[i]]] = edgeFrom[i];
+            edgeHeights[next[edgeTo[i]]++] = edgeHeight[i];
+        }
+        edgeFrom = edgeTo = edgeHeight = null;
+
+        // Flood the graph from the outside like the priority flood of WaterCalculator. Every node is joined to the
+        // outside, because the edges of the map are in every band.
+        int[] result = new int[nodes];
+        Arrays.fill(result, Integer.MAX_VALUE);
+        CellHeap graphHeap = new CellHeap(nodes);
+        result[OUTSIDE] = Integer.MIN_VALUE;
+        graphHeap.push(Integer.MIN_VALUE, OUTSIDE);
+        while (!graphHeap.isEmpty()) {
+            int level = graphHeap.peekKey();
+            int node = graphHeap.pop();
+            if (level > result[node]) {
+                continue;
+            }
+            for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+                int target = targets[i];
+                int targetLevel = Math.max(level, edgeHeights[i]);
+                if (targetLevel < result[target]) {
+                    result[target] = targetLevel;
+                    graphHeap.push(targetLevel, target);
+                }
+            }
+        }
+        return result;
+    }
+
+    // Floods a band from its boundary rows and the edges of the map. marks[i] is the starting square of the flood
+    // which reaches square i, and levels[i] is its water level when the band is alone. A square gets -1 - its start
+    // when it is popped. Squares are popped in the order of their levels, so joining the starts when two floods meet
+    // gives a minimum spanning tree, like Kruskal's algorithm.
+    private void floodBand(int band, int[] startParent) {
+        int first = firstRow(band);
+        int bandRowCount = lastRow(band) - first + 1;
+        int squares = bandRowCount * columns;
+        for (int i = 0; i < startParent.length; i++) {
+            startParent[i] = i;
+        }
+        Arrays.fill(marks, 0, squares, Integer.MAX_VALUE);
+        for (int i = 0; i < squares; i++) {
+            int row = i / columns;
+            int column = i % columns;
+            int start;
+            if (isEdge(first + row, column)) {
+                start = OUTSIDE;
+            } else if (row == 0) {
+                start = 1 + column;
+            } else if (row == bandRowCount - 1) {
+                start = 1 + columns + column;
+            } else {
+                continue;
+            }
+            marks[i] = start;
+            levels[i] = heights[i];
+            heap.push(heights[i], i);
+        }
+        while (!heap.isEmpty()) {
+            int level = heap.peekKey();
+            int cell = heap.pop();
+            int start = marks[cell];
+            marks[cell] = -1 - start;
+            int row = cell / columns;
+            int column = cell % columns;
+            for (int r = Math.max(0, row - 1); r <= Math.min(bandRowCount - 1, row + 1); r++) {
+                for (int c = Math.max(0, column - 1); c <= Math.min(columns - 1, column + 1); c++) {
+                    int neighbour = r * columns + c;
+                    int mark = marks[neighbour];
+                    if (mark == Integer.MAX_VALUE) {
+                        marks[neighbour] = start;
+                        levels[neighbour] = Math.max(heights[neighbour], level);
+                        heap.push(levels[neighbour], neighbour);
+                    } else if (mark < 0) {
+                        int other = -1 - mark;
+                        int root = findStart(startParent, start);
+                        int otherRoot = findStart(startParent, other);
+                        if (root != otherRoot) {
+                            startParent[Math.max(root, otherRoot)] = Math.min(root, otherRoot);
+                            addEdge(globalNode(band, start), globalNode(band, other), level);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private int globalNode(int band, int start) {
+        return start == OUTSIDE ? OUTSIDE : node(band, start - 1);
+    }
+
+    private static int findStart(int[] startParent, int start) {
+        while (startParent[start] != start) {
+            startParent[start] = startParent[startParent[start]];
+            start = startParent[start];
+        }
+        return start;
+    }
+
+    private void addEdge(int from, int to, int height) {
+        if (edgeCount == edgeFrom.length) {
+            edgeFrom = Arrays.copyOf(edgeFrom, edgeCount * 2);
+            edgeTo = Arrays.copyOf(edgeTo, edgeCount * 2);
+            edgeHeight = Arrays.copyOf(edgeHeight, edgeCount * 2);
+        }
+        edgeFrom[edgeCount] = from;
+        edgeTo[edgeCount] = to;
+        edgeHeight[edgeCount++] = height;
+    }
+
+    // Pass 2: writes the water depths and returns the union-find parents of the boundary squares. Boundary squares
+    // of the same lake have the same root.
+    private int[] writeDepths(FileChannel in, FileChannel out, int[] boundaryLevels) throws IOException {
+        int[] lakeParent = new int[boundaryLevels.length];
+        for (int i = 0; i < lakeParent.length; i++) {
+            lakeParent[i] = i;
+        }
+        for (int band = 0; band < bandCount; band++) {
+            readBand(in, band);
+            int first = firstRow(band);
+            int bandRowCount = lastRow(band) - first + 1;
+            int squares = bandRowCount * columns;
+            Arrays.fill(marks, 0, squares, 0);
+            for (int i = 0; i < squares; i++) {
+                int row = i / columns;
+                int column = i % columns;
+                if (isEdge(first + row, column)) {
+                    levels[i] = heights[i];
+                } else if (row == 0) {
+                    levels[i] = Math.max(heights[i], boundaryLevels[node(band, column)]);
+                } else if (row == bandRowCount - 1) {
+                    levels[i] = Math.max(heights[i], boundaryLevels[node(band, columns + column)]);
+                } else {
+                    continue;
+                }
+                marks[i] = 1;
+                heap.push(levels[i], i);
+            }
+            while (!heap.isEmpty()) {
+                int level = heap.peekKey();
+                int cell = heap.pop();
+                int row = cell / columns;
+                int column = cell % columns;
+                for (int r = Math.max(0, row - 1); r <= Math.min(bandRowCount - 1, row + 1); r++) {
+                    for (int c = Math.max(0, column - 1); c <= Math.min(columns - 1, column + 1); c++) {
+                        int neighbour = r * columns + c;
+                        if (marks[neighbour] == 0) {
+                            marks[neighbour] = 1;
+                            levels[neighbour] = Math.max(heights[neighbour], level);
+                            heap.push(levels[neighbour], neighbour);
+                        }
+                    }
+                }
+            }
+            // From now on levels holds the water depths.
+            for (int i = 0; i < squares; i++) {
+                levels[i] -= heights[i];
+            }
+            joinBoundaryLakes(band, lakeParent);
+            // The last row is written by the next band.
+            int owned = band == bandCount - 1 ? squares : squares - columns;
+            out.map(FileChannel.MapMode.READ_WRITE, OUTPUT_HEADER_BYTES + (long) first * columns * Integer.BYTES,
+                    (long) owned * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(levels, 0, owned);
+        }
+        return lakeParent;
+    }
+
+    // Finds the lakes of the band from the water depths in levels. parent[i] is the first square of the lake of square
+    // i, or -1 if there is no lake on square i. marks[root] gets a boundary square of the lake, or -1.
+    private void findLakes(int band) {
+        int first = firstRow(band);
+        int bandRowCount = lastRow(band) - first + 1;
+        int squares = bandRowCount * columns;
+        for (int i = 0; i < squares; i++) {
+            int row = i / columns;
+            int column = i % columns;
+            marks[i] = -1;
+            if (levels[i] <= 0 || isEdge(first + row, column)) {
+                parent[i] = -1;
+                continue;
+            }
+            parent[i] = i;
+            // Neighbours which come before this square: left, upper left, upper and upper right.
+            if (column > 0) {
+                union(i, i - 1);
+            }
+            if (row > 0) {
+                for (int c = Math.max(0, column - 1); c <= Math.min(columns - 1, column + 1); c++) {
+                    union(i, i - columns + c - column);
+                }
+            }
+        }
+        for (int i = 0; i < squares; i++) {
+            int row = i / columns;
+            if (parent[i] >= 0 && ((row == 0 && band > 0) || (row == bandRowCount - 1 && band < bandCount - 1))) {
+                marks[find(i)] = node(band, row == 0 ? i : columns + i % columns);
+            }
+        }
+    }
+
+    private void union(int cell, int neighbour) {
+        if (parent[neighbour] < 0) {
+            return;
+        }
+        int root = find(cell);
+        int otherRoot = find(neighbour);
+        // The first square stays the root.
+        parent[Math.max(root, otherRoot)] = Math.min(root, otherRoot);
+    }
+
+    private int find(int cell) {
+        while (parent[cell] != cell) {
+            parent[cell] = parent[parent[cell]];
+            cell = parent[cell];
+        }
+        return cell;
+    }
+
+    private static int findLake(int[] lakeParent, int node) {
+        while (lakeParent[node] != node) {
+            lakeParent[node] = lakeParent[lakeParent[node]];
+            node = lakeParent[node];
+        }
+        return node;
+    }
+
+    // Joins the boundary squares of each lake of the band.
+    private void joinBoundaryLakes(int band, int[] lakeParent) {
+        findLakes(band);
+        int bandRowCount = lastRow(band) - firstRow(band) + 1;
+        for (int i = 0; i < bandRowCount * columns; i++) {
+            int row = i / columns;
+            if (parent[i] < 0 || !((row == 0 && band > 0) || (row == bandRowCount - 1 && band < bandCount - 1))) {
+                continue;
+            }
+            int root = findLake(lakeParent, node(band, row == 0 ? i : columns + i % columns));
+            int otherRoot = findLake(lakeParent, marks[find(i)]);
+            lakeParent[Math.max(root, otherRoot)] = Math.min(root, otherRoot);
+        }
+    }
+
+    // Pass 3: writes the lake numbers and returns the score. Volumes of lakes which are finished in their band are
+    // summed by their root square, and volumes of lakes which touch a boundary row by their root in lakeParent.
+    private double writeLakes(FileChannel out, int[] lakeParent, int[] boundaryNumbers) throws IOException {
+        long cells = (long) rows * columns;
+        long[] bandVolumes = new long[heights.length];
+        long[] boundaryVolumes = new long[lakeParent.length];
+        double score = 0;
+        lakeCount = 0;
+        for (int band = 0; band < bandCount; band++) {
+            int first = firstRow(band);
+            int squares = (lastRow(band) - first + 1) * columns;
+            out.map(FileChannel.MapMode.READ_ONLY, OUTPUT_HEADER_BYTES + (long) first * columns * Integer.BYTES,
+                    (long) squares * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer()
+                    .get(levels, 0, squares);
+            findLakes(band);
+            // heights keeps the lake number of each root.
+            Arrays.fill(heights, 0, squares, 0);
+            int owned = band == bandCount - 1 ? squares : squares - columns;
+            for (int i = 0; i < owned; i++) {
+                if (parent[i] < 0) {
+                    continue;
+                }
+                int root = find(i);
+                if (heights[root] == 0) {
+                    if (marks[root] < 0) {
+                        heights[root] = newLake();
+                        bandVolumes[root] = 0;
+                    } else {
+                        // marks[root] gets the root in lakeParent, so it is found only once for each lake of the band.
+                        int lakeRoot = findLake(lakeParent, marks[root]);
+                        marks[root] = lakeRoot;
+                        if (boundaryNumbers[lakeRoot] == 0) {
+                            boundaryNumbers[lakeRoot] = newLake();
+                        }
+                        heights[root] = boundaryNumbers[lakeRoot];
+                    }
+                }
+                if (marks[root] < 0) {
+                    bandVolumes[root] += levels[i];
+                } else {
+                    boundaryVolumes[marks[root]] += levels[i];
+                }
+            }
+            for (int i = 0; i < owned; i++) {
+                if (parent[i] == i && marks[i] < 0) {
+                    score += Math.sqrt(bandVolumes[i]);
+                }
+            }
+            // Depths are not needed anymore, so levels gets the lake numbers.
+            for (int i = 0; i < owned; i++) {
+                levels[i] = parent[i] < 0 ? 0 : heights[find(i)];
+            }
+            long offset = OUTPUT_HEADER_BYTES + (cells + (long) first * columns) * Integer.BYTES;
+            out.map(FileChannel.MapMode.READ_WRITE, offset, (long) owned * Integer.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(levels, 0, owned);
+        }
+        for (long volume : boundaryVolumes) {
+            score += Math.sqrt(volume);
+        }
+        return score;
+    }
+
+    // Returns the number of the next lake. Lake numbers are written as ints.
+    private int newLake() {
+        if (lakeCount == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many lakes for the output file");
+        }
+        return (int) ++lakeCount;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 3) {
+            System.out.println("Usage: java BandSolver <input.trw> <output> [rows of a band]");
+            System.exit(1);
+        }
+        try {
+            int bandRows = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+            Result result = new BandSolver(args[0], args[1], bandRows).solve();
+            System.out.printf("Solved %dx%d map in %d bands: %d lakes%n", result.columns, result.rows, result.bands,
+                    result.lakes);
+            System.out.printf("Final score: %.2f%n", result.score);
+            System.out.printf("Time: %.1f ms%n", result.nanos / 1e6);
+        } catch (IllegalArgumentException | IOException ex) {
+            System.out.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,371 @@
+// This class answers questions about a map filled only up to some level, without solving the map again. Usage:
+// java BasinTree <input file> <fill level>...
+// With a fill level h the water level of a square is the smaller one of h and its level in the solved map, so a lake
+// is lower than h only where it spills out before h.
+// The map is solved once, and then the squares with water are visited from the lowest to the highest one. Each
+// square is joined with its visited neighbours (also diagonal ones, like NameCalculator), and the groups of squares
+// make a tree of basins:
+// 1: A square without a visited neighbour is the bottom of a new basin, which is a leaf of the tree.
+// 2: A square next to one basin is added to that basin.
+// 3: A square next to two or more basins is a saddle. The basins spill into each other over it, so a new basin
+// starts here and it is the parent of those basins. The elevation of a basin is the height of its first square, so
+// the children of a basin are merged when the water is higher than its elevation.
+// The roots of the tree are the lakes of the solved map. They spill out of the map at their water level.
+// While the squares are visited, the number of lakes after each square is kept, and the heights and levels of all
+// squares are kept in sorted arrays with their sums. So the number of lakes and the total water at any fill level are
+// found with a binary search. The basin of a square at a fill level is found by jumping up the tree in powers of two
+// (binary lifting), so every question takes logarithmic time.
+import java.io.IOException;
+import java.util.Arrays;
+
+public class BasinTree {
+    private final Grid heights;
+    private final int columns;
+    // Basin of each square with water when the water is high enough, or -1.
+    private final int[] basinOfCell;
+
+    // Basins are numbered in the order they start, so a parent has a bigger number than its children.
+    private int basinCount;
+    private int[] elevations;
+    // First square of a basin: its bottom for a leaf, its saddle otherwise.
+    private int[] firstCells;
+    private int[] parents;
+    // Water level of the lake of a basin in the solved map.
+    private int[] lakeLevels;
+    // Lake number (see NameCalculator) of the lake of a basin.
+    private int[] lakeNumbers;
+    // Children of a basin as a linked list.
+    private int[] firstChildren;
+    private int[] nextSiblings;
+    // ancestors[k][basin] is the ancestor 2^k levels above the basin, or the root.
+    private int[][] ancestors;
+    // Squares of the children of a basin and their total height.
+    private int[] childSquares;
+    private long[] childHeights;
+    // Own squares of basin b are ownHeights[ownStarts[b]..ownStarts[b + 1]), sorted by height. ownSums has the sums of
+    // ownHeights before each index.
+    private int[] ownStarts;
+    private int[] ownHeights;
+    private long[] ownSums;
+
+    // Heights of all squares with water in increasing order, and lakeCounts[i] is the number of lakes when the first i
+    // of them are under water.
+    private int[] sortedHeights;
+    private long[] heightSums;
+    private int[] lakeCounts;
+    // Levels of all squares with water in increasing order.
+    private int[] sortedLevels;
+    private long[] levelSums;
+
+    public BasinTree(GameMap map) {
+        heights = map.getHeightGrid();
+        columns = heights.getColumnNumber();
+        GameMap waterMap = new WaterCalculator(map).calculateWaterLevels();
+        Grid water = waterMap.getHeightGrid();
+        Grid lakes = new NameCalculator(waterMap).calculateNames().getLakeGrid();
+        basinOfCell = new int[heights.size()];
+        Arrays.fill(basinOfCell, -1);
+        build(water, lakes);
+    }
+
+    private void build(Grid water, Grid lakes) {
+        // Squares with water sorted by height. The height is in the upper half of the key, so equal heights are sorted
+        // by square. Maps with 2 or fewer rows or columns can't store water, and WaterCalculator gives their walls.
+        boolean small = heights.getRowNumber() <= 2 || columns <= 2;
+        int wetCount = 0;
+        for (int cell = 0; cell < water.size() && !small; cell++) {
+            if (water.get(cell) > 0) {
+                wetCount++;
+            }
+        }
+        long[] order = new long[wetCount];
+        sortedLevels = new int[wetCount];
+        wetCount = 0;
+        for (int cell = 0; cell < water.size() && !small; cell++) {
+            if (water.get(cell) > 0) {
+                sortedLevels[wetCount] = heights.get(cell) + water.get(cell);
+                order[wetCount++] = ((long) heights.get(cell) << 32) | cell;
+            }
+        }
+        Arrays.sort(order);
+        Arrays.sort(sortedLevels);
+        levelSums = prefixSums(sortedLevels);
+
+        elevations = new int[16];
+        firstCells = new int[16];
+        parents = new int[16];
+        int[] ownCounts = new int[16];
+        int[] groups = new int[heights.size()];
+        Arrays.fill(groups, -1);
+        sortedHeights = new int[wetCount];
+        lakeCounts = new int[wetCount + 1];
+        int[] roots = new int[8];
+        for (int i = 0; i < wetCount; i++) {
+            int cell = (int) order[i];
+            int height = (int) (order[i] >> 32);
+            sortedHeights[i] = height;
+            // Squares with water are never on the edge, so all neighbours are in the map.
+            int rootCount = 0;
+            for (int dr = -columns; dr <= columns; dr += columns) {
+                for (int dc = -1; dc <= 1; dc++) {
+                    int neighbour = cell + dr + dc;
+                    if (neighbour == cell || groups[neighbour] == -1) {
+                        continue;
+                    }
+                    int root = find(groups, neighbour);
+                    boolean seen = false;
+                    for (int r = 0; r < rootCount; r++) {
+                        seen |= roots[r] == root;
+                    }
+                    if (!seen) {
+                        roots[rootCount++] = root;
+                    }
+                }
+            }
+            groups[cell] = cell;
+            int basin;
+            if (rootCount == 1) {
+                basin = basinOfCell[roots[0]];
+            } else {
+                basin = newBasin(height, cell);
+                if (basin == ownCounts.length) {
+                    ownCounts = Arrays.copyOf(ownCounts, basin * 2);
+                }
+                for (int r = 0; r < rootCount; r++) {
+                    parents[basinOfCell[roots[r]]] = basin;
+                }
+            }
+            // The last square of a group is its root, so basinOfCell of the root is the current basin of the group and
+            // other squares keep the basin which they joined.
+            for (int r = 0; r < rootCount; r++) {
+                groups[roots[r]] = cell;
+            }
+            basinOfCell[cell] = basin;
+            ownCounts[basin]++;
+            lakeCounts[i + 1] = lakeCounts[i] + 1 - rootCount;
+        }
+        heightSums = prefixSums(sortedHeights);
+        finish(order, water, lakes, ownCounts);
+    }
+
+    private int newBasin(int elevation, int cell) {
+        int basin = basinCount++;
+        if (basin == elevations.length) {
+            elevations = Arrays.copyOf(elevations, basin * 2);
+            firstCells = Arrays.copyOf(firstCells, basin * 2);
+            parents = Arrays.copyOf(parents, basin * 2);
+        }
+        elevations[basin] = elevation;
+        firstCells[basin] = cell;
+        parents[basin] = -1;
+        return basin;
+    }
+
+    private static int find(int[] groups, int cell) {
+        while (groups[cell] != cell) {
+            groups[cell] = groups[groups[cell]];
+            cell = groups[cell];
+        }
+        return cell;
+    }
+
+    private void finish(long[] order, Grid water, Grid lakes, int[] ownCounts) {
+        int count = basinCount;
+        ownStarts = new int[count + 1];
+        for (int basin = 0; basin < count; basin++) {
+            ownStarts[basin + 1] = ownStarts[basin] + ownCounts[basin];
+        }
+        int[] positions = Arrays.copyOf(ownStarts, count);
+        ownHeights = new int[order.length];
+        for (long key : order) {
+            ownHeights[positions[basinOfCell[(int) key]]++] = (int) (key >> 32);
+        }
+        ownSums = prefixSums(ownHeights);
+
+        // Children have smaller numbers than their parents, so sums and lake data can be passed in one loop each.
+        childSquares = new int[count];
+        childHeights = new long[count];
+        firstChildren = new int[count];
+        nextSiblings = new int[count];
+        Arrays.fill(firstChildren, -1);
+        for (int basin = 0; basin < count; basin++) {
+            int parent = parents[basin];
+            if (parent != -1) {
+                childSquares[parent] += childSquares[basin] + ownCounts[basin];
+                childHeights[parent] += childHeights[basin] + ownSums[ownStarts[basin + 1]] - ownSums[ownStarts[basin]];
+                nextSiblings[basin] = firstChildren[parent];
+                firstChildren[parent] = basin;
+            }
+        }
+        lakeLevels = new int[count];
+        lakeNumbers = new int[count];
+        for (int basin = count - 1; basin >= 0; basin--) {
+            int parent = parents[basin];
+            if (parent == -1) {
+                int cell = firstCells[basin];
+                lakeNumbers[basin] = lakes.get(cell);
+                lakeLevels[basin] = heights.get(cell) + water.get(cell);
+            } else {
+                lakeNumbers[basin] = lakeNumbers[parent];
+                lakeLevels[basin] = lakeLevels[parent];
+            }
+        }
+
+        int levels = 1;
+        while ((1 << levels) < count) {
+            levels++;
+        }
+        ancestors = new int[levels][count];
+        for (int basin = 0; basin < count; basin++) {
+            ancestors[0][basin] = parents[basin] == -1 ? basin : parents[basin];
+        }
+        for (int k = 1; k < levels; k++) {
+            for (int basin = 0; basin < count; basin++) {
+                ancestors[k][basin] = ancestors[k - 1][ancestors[k - 1][basin]];
+            }
+        }
+    }
+
+    private static long[] prefixSums(int[] values) {
+        long[] sums = new long[values.length + 1];
+        for (int i = 0; i < values.length; i++) {
+            sums[i + 1] = sums[i] + values[i];
+        }
+        return sums;
+    }
+
+    // Number of values smaller than given value in a sorted array.
+    private static int countBelow(int[] sorted, int from, int to, int value) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low - from;
+    }
+
+    // Total water on the map when it is filled up to given level.
+    public long getVolume(int fillLevel) {
+        // A square holds fillLevel - height above its height, but not more than level - height above its level.
+        int under = countBelow(sortedHeights, 0, sortedHeights.length, fillLevel);
+        int full = countBelow(sortedLevels, 0, sortedLevels.length, fillLevel);
+        return (long) fillLevel * under - heightSums[under] - ((long) fillLevel * full - levelSums[full]);
+    }
+
+    // Number of lakes when the map is filled up to given level.
+    public int getLakeCount(int fillLevel) {
+        return lakeCounts[countBelow(sortedHeights, 0, sortedHeights.length, fillLevel)];
+    }
+
+    // Water over a square when the map is filled up to given level.
+    public int getDepth(int cell, int fillLevel) {
+        int basin = basinOfCell[cell];
+        if (basin == -1) {
+            return 0;
+        }
+        return Math.max(0, Math.min(fillLevel, lakeLevels[basin]) - heights.get(cell));
+    }
+
+    // Returns the basin which a square belongs to when the map is filled up to given level, or -1 if the square has no
+    // water. Squares with the same basin are in the same lake.
+    public int getBasin(int cell, int fillLevel) {
+        int basin = basinOfCell[cell];
+        if (basin == -1 || getDepth(cell, fillLevel) == 0) {
+            return -1;
+        }
+        // The ancestors which are merged at this level are the ones whose elevation is lower than the level.
+        for (int k = ancestors.length - 1; k >= 0; k--) {
+            int ancestor = ancestors[k][basin];
+            if (elevations[ancestor] < fillLevel) {
+                basin = ancestor;
+            }
+        }
+        return basin;
+    }
+
+    // Water in the squares of a basin and its children when the map is filled up to given level. It is 0 if the level
+    // is not higher than the elevation of the basin, since then its children are separate lakes.
+    public long getVolume(int basin, int fillLevel) {
+        int level = Math.min(fillLevel, lakeLevels[basin]);
+        if (level <= elevations[basin]) {
+            return 0;
+        }
+        int start = ownStarts[basin];
+        int under = countBelow(ownHeights, start, ownStarts[basin + 1], level);
+        long own = (long) level * under - (ownSums[start + under] - ownSums[start]);
+        return own + (long) level * childSquares[basin] - childHeights[basin];
+    }
+
+    public int getBasinCount() {
+        return basinCount;
+    }
+
+    // Parent of a basin, or -1 if the basin is a lake of the solved map.
+    public int getParent(int basin) {
+        return parents[basin];
+    }
+
+    // Height of the first square of a basin. The basin has water when the fill level is higher than this.
+    public int getElevation(int basin) {
+        return elevations[basin];
+    }
+
+    // Elevation where the basin spills: into its neighbour basins over the saddle of its parent, or out of the map at
+    // the level of its lake.
+    public int getSpillElevation(int basin) {
+        return parents[basin] == -1 ? lakeLevels[basin] : elevations[parents[basin]];
+    }
+
+    // Square where the basin starts: its bottom for a leaf, and the saddle over which the children spill into each
+    // other otherwise.
+    public int getFirstCell(int basin) {
+        return firstCells[basin];
+    }
+
+    // Number of the lake in the solved map which contains the basin (1 is A, 2 is B...).
+    public int getLakeNumber(int basin) {
+        return lakeNumbers[basin];
+    }
+
+    // Returns the basins which spill into each other over given square. They would not be merged there if the wall of
+    // the square was raised above the water. The array is empty if the square is not a saddle.
+    public int[] getMergedBasins(int cell) {
+        int basin = basinOfCell[cell];
+        if (basin == -1 || firstCells[basin] != cell || firstChildren[basin] == -1) {
+            return new int[0];
+        }
+        int count = 0;
+        for (int child = firstChildren[basin]; child != -1; child = nextSiblings[child]) {
+            count++;
+        }
+        int[] children = new int[count];
+        for (int child = firstChildren[basin]; child != -1; child = nextSiblings[child]) {
+            children[--count] = child;
+        }
+        return children;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java BasinTree <input file> <fill level>...");
+            System.exit(1);
+        }
+        try {
+            BasinTree tree = new BasinTree(new GameMap(args[0]));
+            System.out.println("Basins: " + tree.getBasinCount());
+            for (int i = 1; i < args.length; i++) {
+                int level = Integer.parseInt(args[i]);
+                System.out.printf("Fill level %d: %d lakes, volume %d%n", level, tree.getLakeCount(level),
+                        tree.getVolume(level));
+            }
+        } catch (IllegalArgumentException | IOException ex) {
+            System.out.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+}
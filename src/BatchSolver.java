@@ -0,0 +1,238 @@
+// This class solves many maps in one JVM. Usage:
+// java BatchSolver <directory or manifest> <output.csv or output.jsonl> [number of threads]
+// If the first argument is a directory, every .txt and .trw file in it is solved. Otherwise it is a manifest, which has
+// one terrain file on each line. Empty lines and lines starting with # are skipped, and relative paths are relative to
+// the folder of the manifest. Stones in the Modifications section of each file are added without asking the user.
+// Maps are solved by a fixed number of threads (number of processors by default). Only a few maps more than the number
+// of threads are kept in memory at a time, and results are written in the order of the input files. If the output ends
+// with ".csv", results are written as CSV, otherwise as JSON Lines. A map that can't be solved gets a result with an
+// error message, and the other maps are still solved.
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+public class BatchSolver {
+    // Number of maps which are submitted but not written yet, for each thread.
+    private static final int MAPS_PER_THREAD = 4;
+
+    private final int threads;
+
+    public BatchSolver(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be at least 1");
+        }
+        this.threads = threads;
+    }
+
+    // Result of one map. If error is not null, the map couldn't be solved and other fields except file are empty.
+    public static final class Result {
+        public final String file;
+        public final int rowNumber;
+        public final int columnNumber;
+        public final int stones;
+        public final double score;
+        // Volumes of the lakes in the order of their names.
+        public final long[] lakeVolumes;
+        public final long loadNanos;
+        public final long solveNanos;
+        public final String error;
+
+        Result(String file, int rowNumber, int columnNumber, int stones, double score, long[] lakeVolumes,
+               long loadNanos, long solveNanos, String error) {
+            this.file = file;
+            this.rowNumber = rowNumber;
+            this.columnNumber = columnNumber;
+            this.stones = stones;
+            this.score = score;
+            this.lakeVolumes = lakeVolumes;
+            this.loadNanos = loadNanos;
+            this.solveNanos = solveNanos;
+            this.error = error;
+        }
+
+        static Result failed(String file, String error) {
+            return new Result(file, 0, 0, 0, 0, new long[0], 0, 0, error);
+        }
+    }
+
+    // Returns the terrain files of a directory in the order of their names, or the files listed in a manifest.
+    public static List<Path> listFiles(Path input) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(input)) {
+            try (Stream<Path> stream = Files.list(input)) {
+                stream.filter(file -> file.toString().endsWith(".txt") || file.toString().endsWith(".trw"))
+                        .filter(Files::isRegularFile)
+                        .forEach(files::add);
+            }
+            Collections.sort(files);
+            return files;
+        }
+        Path folder = input.toAbsolutePath().getParent();
+        for (String line : Files.readAllLines(input, StandardCharsets.UTF_8)) {
+            String text = line.trim();
+            if (!text.isEmpty() && !text.startsWith("#")) {
+                files.add(folder.resolve(text));
+            }
+        }
+        return files;
+    }
+
+    // Loads a map, adds its stones and calculates its lakes. Binary files (.trw) are loaded with GameMap.fromBinary.
+    public static Result solve(Path file) {
+        String name = file.toString();
+        try {
+            long start = System.nanoTime();
+            GameMap map = name.endsWith(".trw") ? GameMap.fromBinary(name) : new GameMap(name);
+            long loaded = System.nanoTime();
+            Grid heights = map.getHeightGrid();
+            int[] stones = map.getModifications();
+            for (int stone : stones) {
+                if (stone < 0 || stone >= heights.size()) {
+                    return Result.failed(name, "Wrong modification " + stone);
+                }
+            }
+            IncrementalSolver solver = new IncrementalSolver(map);
+            for (int stone : stones) {
+                solver.addStone(stone);
+            }
+            double score = solver.getScore();
+            long[] volumes = solver.getLakeVolumes();
+            long solved = System.nanoTime();
+            return new Result(name, heights.getRowNumber(), heights.getColumnNumber(), stones.length, score, volumes,
+                    loaded - start, solved - loaded, null);
+        } catch (IOException ex) {
+            return Result.failed(name, ex.getMessage() == null ? ex.toString() : ex.getMessage());
+        } catch (RuntimeException | OutOfMemoryError ex) {
+            return Result.failed(name, ex.toString());
+        }
+    }
+
+    // Solves the files and writes their results in the same order. Returns the number of maps with an error.
+    public int run(List<Path> files, Path output) throws IOException, InterruptedException {
+        boolean csv = output.toString().endsWith(".csv");
+        int errors = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            if (csv) {
+                writer.write("file,rows,columns,stones,score,lakes,lake_volumes,load_ms,solve_ms,error");
+                writer.newLine();
+            }
+            ArrayDeque<Future<Result>> pending = new ArrayDeque<>();
+            int next = 0;
+            while (next < files.size() || !pending.isEmpty()) {
+                while (next < files.size() && pending.size() < threads * MAPS_PER_THREAD) {
+                    Path file = files.get(next++);
+                    pending.add(pool.submit(() -> solve(file)));
+                }
+                Result result;
+                try {
+                    result = pending.poll().get();
+                } catch (ExecutionException ex) {
+                    // solve doesn't throw exceptions, so this happens only with errors like StackOverflowError.
+                    throw new IllegalStateException(ex.getCause());
+                }
+                if (result.error != null) {
+                    errors++;
+                }
+                if (csv) {
+                    writeCsv(writer, result);
+                } else {
+                    writeJson(writer, result);
+                }
+                writer.newLine();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return errors;
+    }
+
+    private static void writeCsv(Writer writer, Result result) throws IOException {
+        StringBuilder volumes = new StringBuilder();
+        for (int i = 0; i < result.lakeVolumes.length; i++) {
+            if (i > 0) {
+                volumes.append(';');
+            }
+            volumes.append(result.lakeVolumes[i]);
+        }
+        writer.write(csvText(result.file) + "," + result.rowNumber + "," + result.columnNumber + "," + result.stones
+                + "," + String.format(Locale.ROOT, "%.2f", result.score) + "," + result.lakeVolumes.length + ","
+                + volumes + "," + milliseconds(result.loadNanos) + "," + milliseconds(result.solveNanos) + ","
+                + (result.error == null ? "" : csvText(result.error)));
+    }
+
+    private static void writeJson(Writer writer, Result result) throws IOException {
+        StringBuilder line = new StringBuilder();
+        line.append("{\"file\":").append(Json.quote(result.file));
+        if (result.error != null) {
+            line.append(",\"error\":").append(Json.quote(result.error)).append('}');
+            writer.write(line.toString());
+            return;
+        }
+        line.append(",\"rows\":").append(result.rowNumber)
+                .append(",\"columns\":").append(result.columnNumber)
+                .append(",\"stones\":").append(result.stones)
+                .append(",\"score\":").append(String.format(Locale.ROOT, "%.2f", result.score))
+                .append(",\"lakes\":").append(result.lakeVolumes.length)
+                .append(",\"lakeVolumes\":[");
+        for (int i = 0; i < result.lakeVolumes.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            line.append(result.lakeVolumes[i]);
+        }
+        line.append("],\"loadMs\":").append(milliseconds(result.loadNanos))
+                .append(",\"solveMs\":").append(milliseconds(result.solveNanos)).append('}');
+        writer.write(line.toString());
+    }
+
+    private static String milliseconds(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    // Quotes a text if it has a comma, a quote or a line break.
+    private static String csvText(String text) {
+        if (text.indexOf(',') == -1 && text.indexOf('"') == -1 && text.indexOf('\n') == -1
+                && text.indexOf('\r') == -1) {
+            return text;
+        }
+        return "\"" + text.replace("\"", "\"\"") + "\"";
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2 && args.length != 3) {
+            System.out.println("Usage: java BatchSolver <directory or manifest> <output.csv or output.jsonl> "
+                    + "[number of threads]");
+            System.exit(1);
+        }
+        try {
+            int threads = args.length == 3 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+            BatchSolver solver = new BatchSolver(threads);
+            List<Path> files = listFiles(Paths.get(args[0]));
+            long start = System.nanoTime();
+            int errors = solver.run(files, Paths.get(args[1]));
+            System.out.printf("Solved %d maps in %.2f seconds, %d with errors%n", files.size() - errors,
+                    (System.nanoTime() - start) / 1e9, errors);
+        } catch (IllegalArgumentException | IOException ex) {
+            System.out.println(ex.getMessage());
+            System.exit(1);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+// This class is a grid which keeps its numbers in a direct buffer, so they are stored outside of the heap and the
+// garbage collector doesn't need to look at them. The buffer may also be a memory-mapped file. A buffer can hold at
+// most Integer.MAX_VALUE bytes.
+// Files are mapped read-only, so they can be loaded from read-only disks. When a square of such a grid is set (e.g. a
+// stone is added), the numbers are copied into a new direct buffer first, so the file is never changed.
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+public class BufferGrid extends Grid {
+    private IntBuffer values;
+
+    public BufferGrid(int rowNumber, int columnNumber) {
+        super(rowNumber, columnNumber);
+        long bytes = (long) rowNumber * columnNumber * Integer.BYTES;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Map is too big for a single buffer: " + rowNumber + " x "
+                    + columnNumber);
+        }
+        values = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    // Uses given buffer as the storage of the grid. It is used for memory-mapped terrain files. If the buffer is
+    // read-only, it is copied the first time a square is set.
+    public BufferGrid(int rowNumber, int columnNumber, IntBuffer values) {
+        super(rowNumber, columnNumber);
+        this.values = values;
+    }
+
+    @Override
+    public int get(int index) {
+        return values.get(index);
+    }
+
+    @Override
+    public void set(int index, int value) {
+        if (values.isReadOnly()) {
+            copyValues();
+        }
+        values.put(index, value);
+    }
+
+    private synchronized void copyValues() {
+        if (!values.isReadOnly()) {
+            return;
+        }
+        IntBuffer copy = ByteBuffer.allocateDirect(values.capacity() * Integer.BYTES).order(values.order())
+                .asIntBuffer();
+        copy.put(values.duplicate().clear());
+        values = copy;
+    }
+
+    @Override
+    public Grid blank() {
+        return new BufferGrid(rowNumber, columnNumber);
+    }
+}
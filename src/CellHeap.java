@@ -0,0 +1,80 @@
+// This class is a binary min-heap of squares. Squares are kept as row * columnNumber + column and they are ordered by
+// their water heights. Two int arrays are used instead of PriorityQueue, so no object is created for a square.
+
+import java.util.Arrays;
+
+public class CellHeap {
+    private int[] keys;
+    private int[] cells;
+    private int size;
+
+    public CellHeap(int capacity) {
+        keys = new int[Math.max(capacity, 1)];
+        cells = new int[keys.length];
+        size = 0;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Adds a square with given water height. Arrays are doubled when they are full.
+    public void push(int key, int cell) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            cells = Arrays.copyOf(cells, size * 2);
+        }
+        int position = size++;
+        // Move the new square up while its parent is higher.
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (keys[parent] <= key) {
+                break;
+            }
+            keys[position] = keys[parent];
+            cells[position] = cells[parent];
+            position = parent;
+        }
+        keys[position] = key;
+        cells[position] = cell;
+    }
+
+    // Returns the water height of the lowest square without removing it.
+    public int peekKey() {
+        return keys[0];
+    }
+
+    // Removes the lowest square and returns it.
+    public int pop() {
+        int top = cells[0];
+        size--;
+        if (size > 0) {
+            int key = keys[size];
+            int cell = cells[size];
+            int position = 0;
+            // Move the last square down while one of its children is lower.
+            while (true) {
+                int child = 2 * position + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && keys[child + 1] < keys[child]) {
+                    child++;
+                }
+                if (keys[child] >= key) {
+                    break;
+                }
+                keys[position] = keys[child];
+                cells[position] = cells[child];
+                position = child;
+            }
+            keys[position] = key;
+            cells[position] = cell;
+        }
+        return top;
+    }
+}
@@ -1,163 +1,271 @@
-// This class reads the matrix from input file and creates the map array accordingly. It has three constructors.
-// One for reading from text, one for int[][] arrays and one for String[][]. The last one is used for keeping names of
-// the lakes and creating final array. This class also handles calculating the score, printing the map, and changing
-// the terrain with user input.
+// This class reads the matrix from input file and creates the map array accordingly. It has constructors for reading
+// from text, for grids and for int[][] arrays, and a lakeMap method for keeping the lakes. Lakes are kept as numbers
+// (0 means no lake, 1 is A, 2 is B...) and they are turned into names only while printing. The final map keeps both
+// wall heights and lake numbers. This class also handles calculating the score, printing the map, and changing
+// the terrain with user input. Heights are kept in a Grid, which stores them in a single row-major block either on the
+// heap or outside of it. Maps can also be loaded from a binary terrain file, which is explained above fromBinary.
 
 import java.util.Scanner;
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.BiFunction;
 
 public class GameMap {
     private int rowNumber;
     private int columnNumber;
     private boolean heightMap;
-    private int[][] heights;
-    private String[][] names;
+    private Grid heights;
+    private Grid names;
+    // Statistics of the lakes of a names map or a final map, or null if they are not known.
+    private LakeIndex lakeIndex;
     private double score;
+    // Squares (row * columnNumber + column) listed in the Modifications section of the input file.
+    private int[] modifications = new int[0];
 
-    // Reads the input file and creates an array which holds the heights of the walls.
-    public GameMap(String input) throws FileNotFoundException {
-        File file = new File(input);
-        if (!file.exists()) {
-            System.out.println("File doesn't exist");
-            System.exit(1);
-        }
-        Scanner scanner = new Scanner(file);
-        if (scanner.hasNextLine()) {
-            try {
-                columnNumber = scanner.nextInt();
-                rowNumber = scanner.nextInt();
-            } catch (Exception ex) {
-                System.out.println("Wrong format for column or row number");
-                System.exit(1);
-            }
+    // Binary terrain files start with this number, which is "TRW1" in ASCII.
+    static final int BINARY_MAGIC = 0x54525731;
+    // Magic, column number, row number and number of modifications.
+    static final int BINARY_HEADER_BYTES = 4 * Integer.BYTES;
 
-            scanner.nextLine();
-        }
-        heights = new int[rowNumber][columnNumber];
-        int rowCounter = 0;
-        while (rowCounter < rowNumber && scanner.hasNextLine()) {
-            String[] line = scanner.nextLine().split(" ");
-            for (int i = 0; i < line.length; i++) {
-                try {
-                    heights[rowCounter][i] = Integer.parseInt(line[i]);
-                    // If there is a number less than zero than it is an error.
-                    if (Integer.parseInt(line[i]) < 0) {
-                        System.out.println("Wrong format for wall height");
-                        System.exit(1);
-                    }
-                } catch (Exception ex) {
-                    // If an entry can't be turned into an integer than it is an error.
-                    System.out.println("Wrong format for wall height");
-                    System.exit(1);
-                }
-            }
-            rowCounter++;
+    // Reads the input file and creates an array which holds the heights of the walls. Reading is done by TerrainParser,
+    // which throws a TerrainFormatException if the file has a wrong format.
+    public GameMap(String input) throws IOException {
+        this(input, false);
+    }
+
+    // Reads the input file like the constructor above. If offHeap is true, heights are stored outside of the heap.
+    public GameMap(String input, boolean offHeap) throws IOException {
+        this(input, offHeap ? Grid::offHeap : Grid::onHeap);
+    }
+
+    // Reads the input file like the constructor above into a grid made by given function from the row number and the
+    // column number.
+    private GameMap(String input, BiFunction<Integer, Integer, Grid> gridFactory) throws IOException {
+        PipelineMetrics.Timer timer = PipelineMetrics.start(PipelineMetrics.Stage.PARSE);
+        try (InputStream stream = new FileInputStream(input)) {
+            TerrainParser parser = new TerrainParser(stream);
+            parser.parse(gridFactory);
+            heights = parser.getHeights();
+            modifications = parser.getModifications();
         }
-        scanner.close();
+        timer.stop();
+        rowNumber = heights.getRowNumber();
+        columnNumber = heights.getColumnNumber();
         heightMap = true;
         score = 0;
     }
 
+    // Reads the input file into a RunLengthGrid. It is used for maps with large plateaus, which need much less memory
+    // as runs, and then WaterCalculator and NameCalculator work on the runs.
+    public static GameMap runLength(String input) throws IOException {
+        return new GameMap(input, RunLengthGrid::new);
+    }
+
     // This constructor is used for storing water levels in the matrix. It is used by WaterCalculator class.
-    public GameMap(int[][] map) {
+    public GameMap(Grid map) {
         this.heights = map;
-        rowNumber = heights.length;
-        columnNumber = heights[0].length;
+        rowNumber = heights.getRowNumber();
+        columnNumber = heights.getColumnNumber();
         heightMap = true;
         score = 0;
     }
 
-    // This class is used for storing the lake names. It is used by NameCalculator class.
-    public GameMap(String[][] map) {
-        names = map;
-        rowNumber = names.length;
-        columnNumber = names[0].length;
-        heightMap = false;
-        score = 0;
+    // This constructor copies a jagged array into a grid. It is kept for the code which still uses int[][].
+    public GameMap(int[][] map) {
+        this(Grid.of(map));
     }
 
-    // This class is used for creating the final version of matrix with numbers and lake names. It is used by finalMap
-    // method of this class.
-    public GameMap(String[][] map, double score) {
-        this(map);
+    // This constructor is used for creating the final version of matrix with wall heights and lake numbers. It is used
+    // by finalMap method of this class.
+    private GameMap(Grid heights, Grid names, double score) {
+        this(heights, names, false, score);
+    }
+
+    private GameMap(Grid heights, Grid names, boolean heightMap, double score) {
+        this.heights = heights;
+        this.names = names;
+        rowNumber = heightMap ? heights.getRowNumber() : names.getRowNumber();
+        columnNumber = heightMap ? heights.getColumnNumber() : names.getColumnNumber();
+        this.heightMap = heightMap;
         this.score = score;
     }
 
-    public int[][] getHeights() {
-        return heights;
+    // This method is used for storing the lake numbers. It is used by NameCalculator class.
+    public static GameMap lakeMap(Grid names) {
+        return new GameMap(null, names, 0);
     }
 
-    public String[][] getNames() {
-        return names;
+    // Same as the method above for lakes whose statistics are already in an index.
+    public static GameMap lakeMap(Grid names, LakeIndex lakeIndex) {
+        GameMap map = new GameMap(null, names, 0);
+        map.lakeIndex = lakeIndex;
+        return map;
     }
 
-    // This method prints the map, and it takes if the instance holds names or heights into account. Boolean parameter
-    // is used for missing space in the first row of output.
-    public void printMap(boolean space) {
-        // If the instance holds heights than traverse the heights array and print the numbers. If a number is greater
-        // than 10, leave less space to prevent shifting to the right.
-        if (heightMap) {
-            for (int row = 0; row < rowNumber; row++) {
-                if (row < 10) {
-                    System.out.print("  " + row + " ");
-                } else {
-                    System.out.print(" " + row + " ");
-                }
-                for (int column = 0; column < columnNumber; column++) {
-                    if (heights[row][column] < 10) {
-                        System.out.print(" ");
-                    }
-                    if (row == 0 && column == columnNumber - 1 && !space) {
-                        System.out.print(heights[row][column] + "");
-                    } else {
-                        System.out.print(heights[row][column] + " ");
-                    }
-                }
-                System.out.println();
-            }
+    // Creates a height map with its modifications from a grid which is already filled, e.g. by SolveSnapshot.
+    static GameMap heightMap(Grid heights, int[] modifications) {
+        GameMap map = new GameMap(heights);
+        map.modifications = modifications;
+        return map;
+    }
 
-            String[] letters = {"a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k", "l", "m", "n", "o", "p", "q", "r", "s", "t", "u", "v", "w", "x", "y", "z"};
-            System.out.print("    ");
-            // Prints the last row of the map like a chessboard (a,b,c,d...).
-            for (int column = 0; column < columnNumber; column++) {
-                if (column < 26) {
-                    System.out.print(" " + letters[column] + " ");
-                } else {
-                    System.out.print(letters[column / 26 - 1] + letters[column % 26] + " ");
-                }
+    // Creates a final map from lakes which are already named and measured, e.g. by SolveSnapshot, so it is not
+    // calculated again like finalMap does.
+    static GameMap solvedMap(Grid walls, Grid names, LakeIndex lakeIndex, double score) {
+        GameMap map = new GameMap(walls, names, score);
+        map.lakeIndex = lakeIndex;
+        return map;
+    }
+
+    // Returns a copy of this map whose grids can't be changed, so it can be shared between threads. Changing the
+    // copy (like makeModifications) throws an UnsupportedOperationException.
+    public GameMap readOnlyCopy() {
+        GameMap copy = new GameMap(heights == null ? null : heights.readOnlyCopy(),
+                names == null ? null : names.readOnlyCopy(), heightMap, score);
+        copy.modifications = modifications.clone();
+        copy.lakeIndex = lakeIndex;
+        return copy;
+    }
+
+    // Binary terrain files are used for big maps, since reading text is slower than solving the map. A file contains
+    // a header of four little-endian ints: BINARY_MAGIC, column number, row number and number of modifications. Then
+    // heights follow row by row as 4 byte ints, and the modified squares follow them as 4 byte square indexes.
+    // The file is memory-mapped and heights are read from the mapping directly, so nothing is copied while loading.
+    // The mapping is read-only, so the file may be on a read-only disk. Heights are copied the first time a stone is
+    // added (see BufferGrid), which means that makeModifications doesn't change the file.
+    public static GameMap fromBinary(String input) throws IOException {
+        PipelineMetrics.Timer timer = PipelineMetrics.start(PipelineMetrics.Stage.PARSE);
+        GameMap map = mapBinary(input);
+        timer.stop();
+        return map;
+    }
+
+    private static GameMap mapBinary(String input) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(input), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < BINARY_HEADER_BYTES) {
+                throw new IOException("Not a terrain file: " + input);
             }
-            System.out.println();
-        } else {
-            // If the instance holds names than traverse the names array and print the names. This part will also print
-            // the final map which holds both names of the lakes and heights of the wall.
-            for (int row = 0; row < rowNumber; row++) {
-                if (row < 10) {
-                    System.out.print("  " + row + " ");
-                } else {
-                    System.out.print(" " + row + " ");
-                }
-                for (int column = 0; column < columnNumber; column++) {
-                    if (names[row][column].length() < 2) {
-                        System.out.print(" ");
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Terrain file is too big to be mapped: " + input);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != BINARY_MAGIC) {
+                throw new IOException("Not a terrain file: " + input);
+            }
+            int columns = buffer.getInt(4);
+            int rows = buffer.getInt(8);
+            int modificationCount = buffer.getInt(12);
+            long cells = (long) rows * columns;
+            if (rows <= 0 || columns <= 0 || modificationCount < 0
+                    || size != BINARY_HEADER_BYTES + (cells + modificationCount) * Integer.BYTES) {
+                throw new IOException("Wrong size for terrain file: " + input);
+            }
+            ByteBuffer heightBytes = buffer.slice(BINARY_HEADER_BYTES, (int) cells * Integer.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            GameMap map = new GameMap(new BufferGrid(rows, columns, heightBytes.asIntBuffer()));
+            map.modifications = new int[modificationCount];
+            int offset = BINARY_HEADER_BYTES + (int) cells * Integer.BYTES;
+            for (int i = 0; i < modificationCount; i++) {
+                map.modifications[i] = buffer.getInt(offset + i * Integer.BYTES);
+            }
+            return map;
+        }
+    }
+
+    // Writes heights and modifications of this map into a binary terrain file which can be loaded by fromBinary.
+    public void writeBinary(String output) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(output), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(BINARY_MAGIC).putInt(columnNumber).putInt(rowNumber).putInt(modifications.length);
+            for (int i = 0; i < heights.size() + modifications.length; i++) {
+                if (!buffer.hasRemaining()) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
                     }
-                    System.out.print(names[row][column] + " ");
+                    buffer.clear();
                 }
-                System.out.println();
+                buffer.putInt(i < heights.size() ? heights.get(i) : modifications[i - heights.size()]);
             }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    public Grid getHeightGrid() {
+        return heights;
+    }
+
+    // Returns a copy of the heights as a jagged array. Changing the copy doesn't change the map.
+    public int[][] getHeights() {
+        return heights.toArray();
+    }
+
+    public Grid getLakeGrid() {
+        return names;
+    }
 
-            String[] letters = {"a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k", "l", "m", "n", "o", "p", "q", "r", "s", "t", "u", "v", "w", "x", "y", "z"};
-            System.out.print("    ");
+    // Returns the statistics of the lakes, or null if the lakes are not named by NameCalculator. The index of a final
+    // map also knows the spill elevations.
+    public LakeIndex getLakeIndex() {
+        return lakeIndex;
+    }
+
+    // Returns a copy of the lake names as a jagged array. Squares without a lake have an empty name.
+    public String[][] getNames() {
+        String[][] copy = new String[rowNumber][columnNumber];
+        for (int row = 0; row < rowNumber; row++) {
             for (int column = 0; column < columnNumber; column++) {
-                if (column < 26) {
-                    System.out.print(" " + letters[column] + " ");
-                } else {
-                    System.out.print(letters[column / 26 - 1] + letters[column % 26] + " ");
-                }
+                copy[row][column] = NameCreator.nameOf(names.get(row, column));
             }
-            System.out.println();
         }
+        return copy;
+    }
+
+    public int[] getModifications() {
+        return modifications;
+    }
+
+    // This method prints the map, and it takes if the instance holds names or heights into account. Boolean parameter
+    // is used for missing space in the first row of output. The map is written to System.out by a MapWriter, so a
+    // big map doesn't need a print call for each square.
+    public void printMap(boolean space) {
+        try {
+            MapWriter writer = new MapWriter(Channels.newChannel(System.out));
+            writeMap(writer, space);
+            writer.flush();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
 
+    // Writes the map like printMap. If the instance holds names, squares of the final map without a lake show their
+    // wall height.
+    public void writeMap(MapWriter writer, boolean space) throws IOException {
+        if (heightMap) {
+            writer.writeHeights(heights, space);
+        } else {
+            writer.writeLakes(names, heights);
+        }
+    }
+
+    // Returns the score of a final map, which is the sum of square roots of the lake volumes.
+    public double getScore() {
+        return score;
     }
 
     // Prints the score with 2 decimal places.
@@ -168,121 +276,156 @@ public class GameMap {
     // This method is used for increasing the height of a wall with user input. User should make 10 successfull
     // modifications. It checks the input for wrong formats.
     public void makeModifications() {
+        makeModifications(null);
+    }
+
+    // Same as the method above, but stones are added through given solver, which should be created for this map. After
+    // each stone the score is calculated again by the solver and printed.
+    public void makeModifications(IncrementalSolver solver) {
         int successfullModifications = 0;
         Scanner scanner = new Scanner(System.in);
         while (successfullModifications < 10) {
 
             System.out.print("Add stone " + (successfullModifications + 1) + " / 10 to coordinate:");
             String input = scanner.nextLine();
-            if (input.length() < 2 || input.length() > 5) {
-                System.out.println("Not a valid step!");
-                continue;
-            }
-            boolean problematic = false;
-            int numberOfDigits = 0;
-            // If an input contains a symbol or space, it is problematic.
-            // If an input doesn't contain a number, it is problematic.
-            // If an input contains an input at zeroth index, it is problematic.
-            // If an input contains a letter after first index, it is problematic.
-            // If an input contains more than three digits, it is problematic.
-            // If number parts is bigger than row number, it is problematic.
-            // If string part is not in the map, it is problematic.
-            for (int i = 0; i < input.length(); i++) {
-                if (!Character.isLetterOrDigit(input.charAt(i))) {
-                    problematic = true;
-                    break;
-                }
-                if (i > 1 && !Character.isDigit(input.charAt(i))) {
-                    problematic = true;
-                    break;
-                }
-                if (i == 0 && !Character.isLetter(input.charAt(i))) {
-                    problematic = true;
-                    break;
-                }
-                if (Character.isDigit(input.charAt(i))) {
-                    numberOfDigits++;
-                }
-            }
-
-            if (numberOfDigits > 3 || numberOfDigits == 0) {
-                problematic = true;
-            }
-            if (problematic) {
+            int cell = parseCoordinate(input);
+            if (cell == -1) {
                 System.out.println("Not a valid step!");
                 continue;
             }
-            String column = "";
-            int row = 0;
-            column += input.charAt(0);
-            if (Character.isLetter(input.charAt(1))) {
-                column += input.charAt(1);
-                row = Integer.parseInt(input.substring(2));
+            successfullModifications++;
+            if (solver == null) {
+                heights.set(cell, heights.get(cell) + 1);
             } else {
-                row = Integer.parseInt(input.substring(1));
+                solver.addStone(cell);
+            }
+            printMap(true);
+            if (solver != null) {
+                System.out.printf("Current score: %.2f%n", solver.getScore());
             }
+            System.out.println("---------------");
+        }
+        scanner.close();
+    }
+
+    // This method turns a coordinate like a1 or ab12 into the index of its square (row * columnNumber + column). It
+    // returns -1 if the coordinate has a wrong format or it is not in the map.
+    public int parseCoordinate(String input) {
+        return parseCoordinate(input, rowNumber, columnNumber);
+    }
 
-            if (row >= heights.length) {
+    // Same as the method above for a map with given size. It is also used by TerrainParser before the map is created.
+    public static int parseCoordinate(String input, int rowNumber, int columnNumber) {
+        if (input.length() < 2 || input.length() > 5) {
+            return -1;
+        }
+        boolean problematic = false;
+        int numberOfDigits = 0;
+        // If an input contains a symbol or space, it is problematic.
+        // If an input doesn't contain a number, it is problematic.
+        // If an input contains an input at zeroth index, it is problematic.
+        // If an input contains a letter after first index, it is problematic.
+        // If an input contains more than three digits, it is problematic.
+        // If number parts is bigger than row number, it is problematic.
+        // If string part is not in the map, it is problematic.
+        for (int i = 0; i < input.length(); i++) {
+            if (!Character.isLetterOrDigit(input.charAt(i))) {
                 problematic = true;
+                break;
             }
-            int columnToNumber = 0;
-            if (column.length() == 1) {
-                int num = column.charAt(0);
-                columnToNumber = num - 97;
-            }
-            if (column.length() == 2) {
-                int firstNum = column.charAt(0) - 97;
-                int secondNum = column.charAt(1) - 97;
-                columnToNumber = (firstNum + 1) * 26 + secondNum;
+            if (i > 1 && !Character.isDigit(input.charAt(i))) {
+                problematic = true;
+                break;
             }
-
-            if (columnToNumber >= heights[0].length) {
+            if (i == 0 && !Character.isLetter(input.charAt(i))) {
                 problematic = true;
+                break;
             }
-            if (problematic) {
-                System.out.println("Not a valid step!");
-                continue;
+            if (Character.isDigit(input.charAt(i))) {
+                numberOfDigits++;
             }
-            successfullModifications++;
-            heights[row][columnToNumber]++;
-            printMap(true);
-            System.out.println("---------------");
         }
-        scanner.close();
+
+        if (numberOfDigits > 3 || numberOfDigits == 0) {
+            problematic = true;
+        }
+        if (problematic) {
+            return -1;
+        }
+        String column = "";
+        int row = 0;
+        column += input.charAt(0);
+        if (Character.isLetter(input.charAt(1))) {
+            column += input.charAt(1);
+            row = Integer.parseInt(input.substring(2));
+        } else {
+            row = Integer.parseInt(input.substring(1));
+        }
+
+        if (row >= rowNumber) {
+            return -1;
+        }
+        int columnToNumber = 0;
+        if (column.length() == 1) {
+            int num = column.charAt(0);
+            columnToNumber = num - 97;
+        }
+        if (column.length() == 2) {
+            int firstNum = column.charAt(0) - 97;
+            int secondNum = column.charAt(1) - 97;
+            columnToNumber = (firstNum + 1) * 26 + secondNum;
+        }
+
+        if (columnToNumber < 0 || columnToNumber >= columnNumber) {
+            return -1;
+        }
+        return row * columnNumber + columnToNumber;
+    }
+
+    // Reverse of parseCoordinate: turns the index of a square into a coordinate like a1 or ab12.
+    public static String coordinateOf(int cell, int columnNumber) {
+        int row = cell / columnNumber;
+        int column = cell % columnNumber;
+        String letters = column < 26 ? String.valueOf((char) ('a' + column))
+                : "" + (char) ('a' + column / 26 - 1) + (char) ('a' + column % 26);
+        return letters + row;
     }
 
     // This method gets three maps. First one stores calculated water levels, the second one stores the names of
     // the lakes, and the last one stores wall heights. By using these maps if there is no water over a wall, then its
     // wall height is put into the final map but if there is water, its lake name is put into the final map.
     public static GameMap finalMap(GameMap mapOfHeights, GameMap mapOfNames, GameMap firstMap) {
-        if(mapOfHeights.getHeights().length<=2 && mapOfHeights.getHeights()[0].length <=2){
-            return new GameMap(mapOfHeights.getHeights());
+        PipelineMetrics.Timer timer = PipelineMetrics.start(PipelineMetrics.Stage.FINAL_MAP);
+        GameMap result = buildFinalMap(mapOfHeights, mapOfNames, firstMap);
+        timer.stop();
+        return result;
+    }
+
+    private static GameMap buildFinalMap(GameMap mapOfHeights, GameMap mapOfNames, GameMap firstMap) {
+        Grid water = mapOfHeights.getHeightGrid();
+        Grid walls = firstMap.getHeightGrid();
+        Grid lakes = mapOfNames.getLakeGrid();
+        if(water.getRowNumber()<=2 && water.getColumnNumber() <=2){
+            return new GameMap(water);
         }
-        String[][] tempMap = new String[firstMap.rowNumber][firstMap.columnNumber];
-        int[] volumes = new int[27 * 26];
-        for (int i = 0; i < mapOfHeights.getHeights().length; i++) {
-            for (int j = 0; j < mapOfHeights.getHeights()[0].length; j++) {
-                if (mapOfHeights.getHeights()[i][j] == 0) {
-                    tempMap[i][j] = Integer.toString(firstMap.getHeights()[i][j]);
-                } else {
-                    String currentName = mapOfNames.getNames()[i][j];
-                    tempMap[i][j] = currentName;
-                    if (currentName.length() == 1) {
-                        int position = currentName.charAt(0) - 65;
-                        volumes[position] += mapOfHeights.getHeights()[i][j];
-                    } else if (currentName.length() == 2) {
-                        int position = (currentName.charAt(0) - 64) * 26 + currentName.charAt(1) - 65;
-                        volumes[position] += mapOfHeights.getHeights()[i][j];
-                    }
-                }
-            }
+        Grid tempMap = lakes.blank();
+        LakeIndex index = mapOfNames.getLakeIndex();
+        if (index != null && index.isFor(water)) {
+            // NameCalculator names only the squares with water and it has already added up the volumes, so the lakes
+            // are copied as they are and the score is taken from the index.
+            tempMap.copyFrom(lakes);
+            GameMap result = new GameMap(walls, tempMap, index.getScore());
+            result.lakeIndex = index.withWalls(walls);
+            return result;
         }
+        // volumes[lake] is the total water of the lake. It grows when a bigger lake number is found.
+        long[] volumes = GridKernels.get().selectLakes(water, lakes, tempMap, new long[64]);
         double score = 0;
-        for (int volume : volumes) {
+        for (long volume : volumes) {
             if (volume > 0) {
                 score += Math.sqrt(volume);
             }
         }
-        return new GameMap(tempMap, score);
+        return new GameMap(walls, tempMap, score);
     }
 }
\ No newline at end of file
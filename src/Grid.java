@@ -0,0 +1,93 @@
+// This class holds a matrix of integers in a single row-major block instead of an array of rows. The square at
+// (row, column) is kept at index row * columnNumber + column, so neighbour squares are close to each other in memory
+// and no row has to be dereferenced first. There are two kinds of storage: ArrayGrid keeps the numbers in an int[] on
+// the heap, and BufferGrid keeps them in a direct buffer outside of the heap for maps that are too big for it.
+// RunLengthGrid keeps each row as runs of equal numbers instead, for maps with large flat areas.
+public abstract class Grid {
+    protected final int rowNumber;
+    protected final int columnNumber;
+
+    protected Grid(int rowNumber, int columnNumber) {
+        this.rowNumber = rowNumber;
+        this.columnNumber = columnNumber;
+    }
+
+    // Creates a grid on the heap filled with zeros.
+    public static Grid onHeap(int rowNumber, int columnNumber) {
+        return new ArrayGrid(rowNumber, columnNumber);
+    }
+
+    // Creates a grid outside of the heap filled with zeros.
+    public static Grid offHeap(int rowNumber, int columnNumber) {
+        return new BufferGrid(rowNumber, columnNumber);
+    }
+
+    // Copies a jagged array into a grid on the heap. It is used by the int[][] constructor of GameMap.
+    public static Grid of(int[][] array) {
+        Grid grid = onHeap(array.length, array[0].length);
+        for (int row = 0; row < array.length; row++) {
+            for (int column = 0; column < array[0].length; column++) {
+                grid.set(row, column, array[row][column]);
+            }
+        }
+        return grid;
+    }
+
+    public int getRowNumber() {
+        return rowNumber;
+    }
+
+    public int getColumnNumber() {
+        return columnNumber;
+    }
+
+    public int size() {
+        return rowNumber * columnNumber;
+    }
+
+    public abstract int get(int index);
+
+    public abstract void set(int index, int value);
+
+    // Returns an empty grid which has the same size and the same kind of storage. Calculators use it for their
+    // temporary matrices, so a map outside of the heap doesn't create big arrays on the heap.
+    public abstract Grid blank();
+
+    public int get(int row, int column) {
+        return get(row * columnNumber + column);
+    }
+
+    public void set(int row, int column, int value) {
+        set(row * columnNumber + column, value);
+    }
+
+    // Copies the numbers of a grid with the same size into this grid.
+    public void copyFrom(Grid source) {
+        if (source.getRowNumber() != rowNumber || source.getColumnNumber() != columnNumber) {
+            throw new IllegalArgumentException("Grids have different sizes");
+        }
+        for (int i = 0; i < size(); i++) {
+            set(i, source.get(i));
+        }
+    }
+
+    // Returns a copy of the grid which can't be changed. The copy has the same kind of storage.
+    public Grid readOnlyCopy() {
+        Grid copy = blank();
+        for (int i = 0; i < size(); i++) {
+            copy.set(i, get(i));
+        }
+        return new ReadOnlyGrid(copy);
+    }
+
+    // Copies the grid into a jagged array. It is kept for the code which still uses int[][].
+    public int[][] toArray() {
+        int[][] array = new int[rowNumber][columnNumber];
+        for (int row = 0; row < rowNumber; row++) {
+            for (int column = 0; column < columnNumber; column++) {
+                array[row][column] = get(row, column);
+            }
+        }
+        return array;
+    }
+}
@@ -0,0 +1,126 @@
+// This class has the loops which go over a whole grid square by square: putting the outer walls into a new grid
+// (Stage 2 of WaterCalculator), subtracting the walls from the water heights (Stage 7) and choosing lakes of the final
+// map with their volumes (GameMap.finalMap). Grids on the heap are given to the loops as arrays, and other grids use
+// the plain loops of this class.
+// The loops can also be run with the Vector API, which works on many squares with one instruction. The Vector API is
+// an incubator module in Java 17, so it is built in the vector module with VectorGridKernels and it is used only when
+// the JVM is started with --add-modules jdk.incubator.vector and the vector jar is on the class path. Otherwise, or
+// with -Dradegast.vector=false, the loops of this class are used. Both give the same results.
+import java.util.Arrays;
+
+public class GridKernels {
+    private static final GridKernels INSTANCE = load();
+
+    protected GridKernels() {
+    }
+
+    public static GridKernels get() {
+        return INSTANCE;
+    }
+
+    private static GridKernels load() {
+        if (Boolean.parseBoolean(System.getProperty("radegast.vector", "true"))
+                && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (GridKernels) Class.forName("VectorGridKernels").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError ex) {
+                // The vector jar is not on the class path.
+            }
+        }
+        return new GridKernels();
+    }
+
+    // Name of the implementation, e.g. for benchmarks.
+    public String name() {
+        return "scalar";
+    }
+
+    // Puts the most outer squares of source into target and inner into every other square.
+    public void seedFrame(Grid target, Grid source, int inner) {
+        int rows = target.getRowNumber();
+        int columns = target.getColumnNumber();
+        if (target instanceof ArrayGrid && source instanceof ArrayGrid) {
+            int[] values = ((ArrayGrid) target).array();
+            int[] walls = ((ArrayGrid) source).array();
+            if (rows > 2) {
+                fill(values, columns, values.length - columns, inner);
+            }
+            System.arraycopy(walls, 0, values, 0, columns);
+            System.arraycopy(walls, values.length - columns, values, values.length - columns, columns);
+            for (int row = 1; row < rows - 1; row++) {
+                values[row * columns] = walls[row * columns];
+                values[row * columns + columns - 1] = walls[row * columns + columns - 1];
+            }
+            return;
+        }
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                boolean outer = row == 0 || row == rows - 1 || column == 0 || column == columns - 1;
+                target.set(row, column, outer ? source.get(row, column) : inner);
+            }
+        }
+    }
+
+    // Subtracts every number of other from the same square of target.
+    public void subtract(Grid target, Grid other) {
+        if (target instanceof ArrayGrid && other instanceof ArrayGrid) {
+            subtract(((ArrayGrid) target).array(), ((ArrayGrid) other).array(), target.size());
+            return;
+        }
+        for (int i = 0; i < target.size(); i++) {
+            target.set(i, target.get(i) - other.get(i));
+        }
+    }
+
+    // Puts the lake of each square with water into result, and adds its water to volumes[lake]. Squares without water
+    // or without a lake get 0. volumes is grown when a bigger lake is found, so the returned array should be used.
+    public long[] selectLakes(Grid water, Grid lakes, Grid result, long[] volumes) {
+        if (water instanceof ArrayGrid && lakes instanceof ArrayGrid && result instanceof ArrayGrid) {
+            return selectLakes(((ArrayGrid) water).array(), ((ArrayGrid) lakes).array(),
+                    ((ArrayGrid) result).array(), water.size(), volumes);
+        }
+        for (int i = 0; i < water.size(); i++) {
+            int lake = lakes.get(i);
+            int currentWater = water.get(i);
+            if (currentWater != 0 && lake != 0) {
+                result.set(i, lake);
+                volumes = addVolume(volumes, lake, currentWater);
+            } else {
+                result.set(i, 0);
+            }
+        }
+        return volumes;
+    }
+
+    protected void fill(int[] values, int from, int to, int value) {
+        Arrays.fill(values, from, to, value);
+    }
+
+    protected void subtract(int[] values, int[] other, int length) {
+        for (int i = 0; i < length; i++) {
+            values[i] -= other[i];
+        }
+    }
+
+    protected long[] selectLakes(int[] water, int[] lakes, int[] result, int length, long[] volumes) {
+        for (int i = 0; i < length; i++) {
+            int lake = lakes[i];
+            int currentWater = water[i];
+            if (currentWater != 0 && lake != 0) {
+                result[i] = lake;
+                volumes = addVolume(volumes, lake, currentWater);
+            } else {
+                result[i] = 0;
+            }
+        }
+        return volumes;
+    }
+
+    protected static long[] addVolume(long[] volumes, int lake, int water) {
+        if (lake >= volumes.length) {
+            volumes = Arrays.copyOf(volumes, Math.max(lake + 1, volumes.length * 2));
+        }
+        volumes[lake] += water;
+        return volumes;
+    }
+}
@@ -0,0 +1,734 @@
+// This class keeps the water heights and the lakes of a map, so that after a stone is added only the changed part of
+// the map is calculated again. It is used for showing the score after each stone.
+// A stone raises the wall of a square by one. Water heights can only increase after that, and a square can only change
+// if water leaves it through the raised square. Such squares have a water height lower than the new wall. So:
+// 1: If the raised square is under water and the water is at least as high as the new wall, only the water over that
+// square decreases by one.
+// 2: Otherwise the squares which are connected to the raised square (also through the diagonals) and have a lower
+// water height than the new wall form the basin. Only the basin is flooded again like the priority flood of
+// WaterCalculator. Water heights around the basin don't change, so they are used as the start of the flood.
+// 3: Lakes which have a square in the basin or next to it are removed and the squares with water there are grouped into
+// lakes again. Lakes are kept with their own numbers, and their names are found only when the final map is created:
+// lakes are named in the order their first squares appear, like NameCalculator does.
+// So the work for a stone depends on the size of the basin and the lakes around it, not on the size of the map.
+// An overlay of a solver (see overlay) shares the grids of the solver and keeps only the squares and lakes which are
+// changed by its own stones, so many sets of stones can be tried on the same map without copying it. A solver can also
+// keep an undo log (see keepUndoLog), so a stone which changes only a small part of the map can be tried and taken back
+// without copying the map.
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class IncrementalSolver {
+    private static final int UNKNOWN = Integer.MAX_VALUE;
+    // Kinds of values in the undo log.
+    private static final int HEIGHT = 0;
+    private static final int LEVEL = 1;
+    private static final int LAKE = 2;
+    private static final int VOLUME = 3;
+    private static final int FIRST_CELL = 4;
+    private static final int FREE_LAKE = 5;
+    // A lake of lakesInOrder by its first square. The old value is -1 if there was no lake with that first square.
+    private static final int LAKE_ORDER = 6;
+
+    private final GameMap map;
+    private final Grid heights;
+    private final int rows;
+    private final int columns;
+    // Water heights (not levels) of the squares.
+    private final Grid levels;
+    // Lake number of each square, 0 if there is no lake. These numbers are not the names of the lakes.
+    private final Grid lakes;
+    // volumes[lake] and firstCells[lake] are the total water and the first square of a lake. For an overlay they are
+    // indexed by lakeSlots.get(lake) instead, see volumeOf.
+    private long[] volumes;
+    private int[] firstCells;
+    private int[] freeLakes;
+    private int freeLakeCount;
+    private int nextLake;
+    // Lakes ordered by their first squares, which is the order of their names. An overlay keeps only its changed lakes
+    // here, the other lakes are in the base solver.
+    private final TreeMap<Integer, Integer> lakesInOrder;
+    // marks.get(cell) == mark means that the square is visited in the current step. mark increases for each step, so
+    // marks don't need to be cleared.
+    private final Grid marks;
+    private int mark;
+    private int[] queue;
+    // Set only for an overlay: the solver whose grids and lakes are shared, and the slots of the lakes which are
+    // changed by this overlay. Lakes without a slot are the same as in the base solver.
+    private final IncrementalSolver base;
+    private final HashMap<Integer, Integer> lakeSlots;
+    // Undo log, null if it is not kept. For each change it has the kind of the value, its square or lake and its old
+    // value. freeLakeCount and nextLake are kept as they were at the start of the log. The log is full when it has as
+    // many changes as the map has squares, then copyFrom is faster than undo and nothing more is logged.
+    private int[] logKinds;
+    private int[] logIndices;
+    private long[] logValues;
+    private int logSize;
+    private boolean logFull;
+    private int loggedFreeLakeCount;
+    private int loggedNextLake;
+
+    // Solves the map once with the priority flood and keeps the result. Later changes of the map should be done with
+    // addStone.
+    public IncrementalSolver(GameMap map) {
+        this(map, null, null);
+    }
+
+    // Starts from water heights and lake numbers which are already calculated for the map, e.g. loaded from a
+    // SolveSnapshot, so the map is not solved again. Lakes must be numbered like NameCalculator does. If water is null,
+    // the map is solved like the constructor above.
+    IncrementalSolver(GameMap map, Grid water, Grid names) {
+        this.map = map;
+        heights = map.getHeightGrid();
+        rows = heights.getRowNumber();
+        columns = heights.getColumnNumber();
+        levels = heights.blank();
+        lakes = heights.blank();
+        volumes = new long[64];
+        firstCells = new int[64];
+        freeLakes = new int[16];
+        nextLake = 1;
+        lakesInOrder = new TreeMap<>();
+        marks = Grid.onHeap(rows, columns);
+        queue = new int[64];
+        base = null;
+        lakeSlots = null;
+        if (isSmall()) {
+            return;
+        }
+        if (water == null) {
+            water = new WaterCalculator(map, WaterCalculator.Engine.PRIORITY_FLOOD).calculateWaterLevels()
+                    .getHeightGrid();
+            names = new NameCalculator(new GameMap(water)).calculateNames().getLakeGrid();
+        }
+        for (int i = 0; i < levels.size(); i++) {
+            levels.set(i, water.get(i) + heights.get(i));
+        }
+        // Lakes from NameCalculator are numbered in the order of their first squares already.
+        for (int cell = 0; cell < names.size(); cell++) {
+            int lake = names.get(cell);
+            if (lake == 0) {
+                continue;
+            }
+            while (lake >= nextLake) {
+                int newLake = newLake();
+                firstCells[newLake] = cell;
+                lakesInOrder.put(cell, newLake);
+            }
+            lakes.set(cell, lake);
+            volumes[lake] += water.get(cell);
+        }
+    }
+
+    // Creates a copy of given solver with its own copy of the heights, so stones can be tried on the copy without
+    // changing the original map.
+    private IncrementalSolver(IncrementalSolver other) {
+        heights = other.heights.blank();
+        map = new GameMap(heights);
+        rows = other.rows;
+        columns = other.columns;
+        levels = other.levels.blank();
+        lakes = other.lakes.blank();
+        lakesInOrder = new TreeMap<>();
+        marks = Grid.onHeap(rows, columns);
+        queue = new int[64];
+        base = null;
+        lakeSlots = null;
+        copyFrom(other);
+    }
+
+    // Creates an overlay of given solver. Its grids are OverlayGrids on the grids of the base solver, and its lake
+    // tables only have the lakes which are changed.
+    private IncrementalSolver(IncrementalSolver base, boolean overlay) {
+        this.base = base;
+        map = new GameMap(new OverlayGrid(base.heights));
+        heights = map.getHeightGrid();
+        rows = base.rows;
+        columns = base.columns;
+        levels = new OverlayGrid(base.levels);
+        lakes = new OverlayGrid(base.lakes);
+        volumes = new long[16];
+        firstCells = new int[16];
+        freeLakes = new int[16];
+        nextLake = base.nextLake;
+        lakesInOrder = new TreeMap<>();
+        marks = new OverlayGrid(rows, columns);
+        queue = new int[64];
+        lakeSlots = new HashMap<>();
+    }
+
+    public IncrementalSolver copy() {
+        return new IncrementalSolver(this);
+    }
+
+    // Returns an overlay of this solver. Stones added to the overlay don't change this solver, and the overlay keeps
+    // only the squares and lakes which are different from this solver, so its memory depends on the number of changed
+    // squares. This solver must not be changed while its overlays are used. Overlays of the same solver can be used
+    // in different threads.
+    public IncrementalSolver overlay() {
+        if (base != null) {
+            throw new IllegalStateException("An overlay can't have an overlay");
+        }
+        return new IncrementalSolver(this, true);
+    }
+
+    // Number of squares kept by the overlay grids for heights, water heights and lakes. It is 0 for a solver which is
+    // not an overlay.
+    public int getOverlaySize() {
+        if (base == null) {
+            return 0;
+        }
+        return ((OverlayGrid) heights).changedCount() + ((OverlayGrid) levels).changedCount()
+                + ((OverlayGrid) lakes).changedCount();
+    }
+
+    // Makes this solver the same as the other solver, which must be a solver of a map with the same size. Grids and
+    // arrays of this solver are reused, so this is much faster than solving the map again. It is used for trying a lot
+    // of stones on the same map, see StoneOptimizer.
+    public void copyFrom(IncrementalSolver other) {
+        if (other.rows != rows || other.columns != columns) {
+            throw new IllegalArgumentException("Maps of the solvers have different sizes");
+        }
+        if (base != null || other.base != null) {
+            throw new IllegalArgumentException("Overlays can't be copied");
+        }
+        heights.copyFrom(other.heights);
+        levels.copyFrom(other.levels);
+        lakes.copyFrom(other.lakes);
+        volumes = copyOf(other.volumes, volumes);
+        firstCells = copyOf(other.firstCells, firstCells);
+        freeLakes = copyOf(other.freeLakes, freeLakes);
+        freeLakeCount = other.freeLakeCount;
+        nextLake = other.nextLake;
+        lakesInOrder.clear();
+        lakesInOrder.putAll(other.lakesInOrder);
+        // marks and mark are not copied. mark only increases, so old marks of this solver are never equal to it.
+        if (logKinds != null) {
+            clearUndoLog();
+        }
+    }
+
+    // Starts keeping an undo log, so stones which are added later can be taken back with undo. It is used for trying
+    // a lot of stones on the same placement, see StoneOptimizer.
+    public void keepUndoLog() {
+        if (base != null) {
+            throw new IllegalStateException("An overlay can't keep an undo log");
+        }
+        if (logKinds == null) {
+            logKinds = new int[64];
+            logIndices = new int[64];
+            logValues = new long[64];
+        }
+        clearUndoLog();
+    }
+
+    // Takes back the stones which are added after keepUndoLog, copyFrom or the last undo. The changes are taken back
+    // from the log, so the work depends on the number of changed squares and lakes, not on the size of the map.
+    // Returns false if the log is full. Then nothing is taken back, and the solver should be made equal to the
+    // placement with copyFrom.
+    public boolean undo() {
+        if (logKinds == null) {
+            throw new IllegalStateException("The solver doesn't keep an undo log");
+        }
+        if (logFull) {
+            return false;
+        }
+        for (int i = logSize - 1; i >= 0; i--) {
+            int index = logIndices[i];
+            long value = logValues[i];
+            switch (logKinds[i]) {
+                case HEIGHT:
+                    heights.set(index, (int) value);
+                    break;
+                case LEVEL:
+                    levels.set(index, (int) value);
+                    break;
+                case LAKE:
+                    lakes.set(index, (int) value);
+                    break;
+                case VOLUME:
+                    volumes[index] = value;
+                    break;
+                case FIRST_CELL:
+                    firstCells[index] = (int) value;
+                    break;
+                case FREE_LAKE:
+                    freeLakes[index] = (int) value;
+                    break;
+                default:
+                    if (value < 0) {
+                        lakesInOrder.remove(index);
+                    } else {
+                        lakesInOrder.put(index, (int) value);
+                    }
+            }
+        }
+        freeLakeCount = loggedFreeLakeCount;
+        nextLake = loggedNextLake;
+        clearUndoLog();
+        return true;
+    }
+
+    private void clearUndoLog() {
+        logSize = 0;
+        logFull = false;
+        loggedFreeLakeCount = freeLakeCount;
+        loggedNextLake = nextLake;
+    }
+
+    private void log(int kind, int index, long oldValue) {
+        if (logFull || logSize == heights.size()) {
+            logFull = true;
+            return;
+        }
+        if (logSize == logKinds.length) {
+            logKinds = Arrays.copyOf(logKinds, logSize * 2);
+            logIndices = Arrays.copyOf(logIndices, logSize * 2);
+            logValues = Arrays.copyOf(logValues, logSize * 2);
+        }
+        logKinds[logSize] = kind;
+        logIndices[logSize] = index;
+        logValues[logSize++] = oldValue;
+    }
+
+    // Sets a square of heights, levels or lakes. The old value is logged if the undo log is kept.
+    private void set(Grid grid, int kind, int cell, int value) {
+        if (logKinds != null && !logFull) {
+            log(kind, cell, grid.get(cell));
+        }
+        grid.set(cell, value);
+    }
+
+    private void setFreeLake(int index, int lake) {
+        if (logKinds != null) {
+            log(FREE_LAKE, index, freeLakes[index]);
+        }
+        freeLakes[index] = lake;
+    }
+
+    private void putLakeOrder(int first, int lake) {
+        Integer old = lakesInOrder.put(first, lake);
+        if (logKinds != null) {
+            log(LAKE_ORDER, first, old == null ? -1 : old);
+        }
+    }
+
+    private void removeLakeOrder(int first) {
+        Integer old = lakesInOrder.remove(first);
+        if (logKinds != null) {
+            log(LAKE_ORDER, first, old == null ? -1 : old);
+        }
+    }
+
+    private static long[] copyOf(long[] source, long[] target) {
+        if (target == null || target.length != source.length) {
+            return source.clone();
+        }
+        System.arraycopy(source, 0, target, 0, source.length);
+        return target;
+    }
+
+    private static int[] copyOf(int[] source, int[] target) {
+        if (target == null || target.length != source.length) {
+            return source.clone();
+        }
+        System.arraycopy(source, 0, target, 0, source.length);
+        return target;
+    }
+
+    public Grid getHeightGrid() {
+        return heights;
+    }
+
+    // Water heights (not levels) of the squares. They must not be changed.
+    public Grid getLevelGrid() {
+        return levels;
+    }
+
+    // Maps with 2 or fewer rows or columns can't store water.
+    private boolean isSmall() {
+        return rows <= 2 || columns <= 2;
+    }
+
+    // Adds a stone to given square (row * columnNumber + column) and updates water heights and lakes.
+    public void addStone(int cell) {
+        int newWall = heights.get(cell) + 1;
+        set(heights, HEIGHT, cell, newWall);
+        if (isSmall()) {
+            return;
+        }
+        mark++;
+        int size = 0;
+        if (levels.get(cell) < newWall) {
+            // Stage 2: find the basin and flood it again.
+            size = findBasin(cell, newWall);
+            floodBasin(size);
+        }
+        // Stage 1: the raised square is also checked, since the water over it decreases.
+        if (marks.get(cell) != mark) {
+            marks.set(cell, mark);
+            push(size++, cell);
+        }
+        relabel(size);
+        if (base != null) {
+            ((OverlayGrid) marks).clear();
+        }
+    }
+
+    // Puts the squares of the basin into the queue and marks them. Returns the number of squares.
+    private int findBasin(int cell, int newWall) {
+        int size = 0;
+        marks.set(cell, mark);
+        push(size++, cell);
+        for (int i = 0; i < size; i++) {
+            int current = queue[i];
+            int row = current / columns;
+            int column = current % columns;
+            for (int r = Math.max(row - 1, 0); r <= Math.min(row + 1, rows - 1); r++) {
+                for (int c = Math.max(column - 1, 0); c <= Math.min(column + 1, columns - 1); c++) {
+                    int neighbour = r * columns + c;
+                    if (marks.get(neighbour) != mark && levels.get(neighbour) < newWall) {
+                        marks.set(neighbour, mark);
+                        push(size++, neighbour);
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    // Floods the basin like the priority flood. Outer walls of the map keep their wall heights, and other squares start
+    // from the water heights of their neighbours outside of the basin.
+    private void floodBasin(int size) {
+        CellHeap heap = new CellHeap(size);
+        // Only the squares of the basin are changed, so their old levels are logged here and not in the flood.
+        for (int i = 0; i < size && logKinds != null && !logFull; i++) {
+            log(LEVEL, queue[i], levels.get(queue[i]));
+        }
+        for (int i = 0; i < size; i++) {
+            levels.set(queue[i], UNKNOWN);
+        }
+        for (int i = 0; i < size; i++) {
+            int cell = queue[i];
+            int row = cell / columns;
+            int column = cell % columns;
+            int wall = heights.get(cell);
+            int level = UNKNOWN;
+            if (row == 0 || row == rows - 1 || column == 0 || column == columns - 1) {
+                level = wall;
+            } else {
+                for (int r = row - 1; r <= row + 1; r++) {
+                    for (int c = column - 1; c <= column + 1; c++) {
+                        int neighbour = r * columns + c;
+                        if (marks.get(neighbour) != mark) {
+                            level = Math.min(level, Math.max(wall, levels.get(neighbour)));
+                        }
+                    }
+                }
+            }
+            if (level != UNKNOWN) {
+                levels.set(cell, level);
+                heap.push(level, cell);
+            }
+        }
+        while (!heap.isEmpty()) {
+            int level = heap.peekKey();
+            int cell = heap.pop();
+            if (level > levels.get(cell)) {
+                continue;
+            }
+            int row = cell / columns;
+            int column = cell % columns;
+            for (int r = Math.max(row - 1, 0); r <= Math.min(row + 1, rows - 1); r++) {
+                for (int c = Math.max(column - 1, 0); c <= Math.min(column + 1, columns - 1); c++) {
+                    int neighbour = r * columns + c;
+                    if (marks.get(neighbour) != mark) {
+                        continue;
+                    }
+                    int neighbourLevel = Math.max(heights.get(neighbour), level);
+                    if (neighbourLevel < levels.get(neighbour)) {
+                        levels.set(neighbour, neighbourLevel);
+                        heap.push(neighbourLevel, neighbour);
+                    }
+                }
+            }
+        }
+    }
+
+    // Stage 3: the first size squares of the queue are the changed squares. Lakes on them and next to them are removed,
+    // and squares with water among them are grouped into new lakes.
+    private void relabel(int size) {
+        // Squares of the removed lakes are added to the end of the queue.
+        int end = size;
+        for (int i = 0; i < size; i++) {
+            int cell = queue[i];
+            int row = cell / columns;
+            int column = cell % columns;
+            for (int r = Math.max(row - 1, 0); r <= Math.min(row + 1, rows - 1); r++) {
+                for (int c = Math.max(column - 1, 0); c <= Math.min(column + 1, columns - 1); c++) {
+                    int lake = lakes.get(r * columns + c);
+                    if (lake != 0) {
+                        end = removeLake(lake, end);
+                    }
+                }
+            }
+        }
+        // Every square in the queue is marked now. Squares with water are grouped again; a square is unmarked when it
+        // gets its lake.
+        for (int i = 0; i < end; i++) {
+            int cell = queue[i];
+            if (marks.get(cell) == mark && hasWater(cell)) {
+                end = createLake(cell, end);
+            }
+        }
+    }
+
+    // Removes a lake and adds its squares to the end of the queue.
+    private int removeLake(int lake, int end) {
+        int first = firstCellOf(lake);
+        if (marks.get(first) != mark) {
+            marks.set(first, mark);
+            end = push(end, first);
+        }
+        set(lakes, LAKE, first, 0);
+        // The lake is traversed from its first square. Lake numbers are cleared while they are visited, so squares
+        // which are already in the queue are also found.
+        int[] stack = new int[]{first};
+        int stackSize = 1;
+        while (stackSize > 0) {
+            int cell = stack[--stackSize];
+            int row = cell / columns;
+            int column = cell % columns;
+            for (int r = row - 1; r <= row + 1; r++) {
+                for (int c = column - 1; c <= column + 1; c++) {
+                    int neighbour = r * columns + c;
+                    if (lakes.get(neighbour) != lake) {
+                        continue;
+                    }
+                    set(lakes, LAKE, neighbour, 0);
+                    if (marks.get(neighbour) != mark) {
+                        marks.set(neighbour, mark);
+                        end = push(end, neighbour);
+                    }
+                    if (stackSize == stack.length) {
+                        stack = Arrays.copyOf(stack, stackSize * 2);
+                    }
+                    stack[stackSize++] = neighbour;
+                }
+            }
+        }
+        removeLakeOrder(first);
+        setLake(lake, 0, first);
+        if (freeLakeCount == freeLakes.length) {
+            freeLakes = Arrays.copyOf(freeLakes, freeLakeCount * 2);
+        }
+        setFreeLake(freeLakeCount++, lake);
+        return end;
+    }
+
+    // Creates a new lake from a marked square with water and all marked squares with water connected to it. Squares of
+    // the new lake are unmarked. They are collected at the end of the queue after end, which is given back unchanged.
+    private int createLake(int start, int end) {
+        // An overlay gives the lake the number it had in the base solver if it is free, so the lake numbers of its
+        // squares don't change.
+        int lake = newLake(base == null ? 0 : base.lakes.get(start));
+        int first = start;
+        long volume = 0;
+        int size = end;
+        marks.set(start, mark - 1);
+        size = push(size, start);
+        for (int i = end; i < size; i++) {
+            int cell = queue[i];
+            set(lakes, LAKE, cell, lake);
+            volume += levels.get(cell) - heights.get(cell);
+            first = Math.min(first, cell);
+            int row = cell / columns;
+            int column = cell % columns;
+            for (int r = row - 1; r <= row + 1; r++) {
+                for (int c = column - 1; c <= column + 1; c++) {
+                    int neighbour = r * columns + c;
+                    if (marks.get(neighbour) == mark && hasWater(neighbour)) {
+                        marks.set(neighbour, mark - 1);
+                        size = push(size, neighbour);
+                    }
+                }
+            }
+        }
+        setLake(lake, volume, first);
+        putLakeOrder(first, lake);
+        return end;
+    }
+
+    // Only inner squares can be a part of a lake.
+    private boolean hasWater(int cell) {
+        int row = cell / columns;
+        int column = cell % columns;
+        if (row == 0 || row == rows - 1 || column == 0 || column == columns - 1) {
+            return false;
+        }
+        return levels.get(cell) > heights.get(cell);
+    }
+
+    private int newLake() {
+        return newLake(0);
+    }
+
+    // Returns a free lake number. If preferred is free, it is returned.
+    private int newLake(int preferred) {
+        int lake;
+        if (freeLakeCount > 0) {
+            int position = freeLakeCount - 1;
+            for (int i = 0; i < freeLakeCount && preferred != 0; i++) {
+                if (freeLakes[i] == preferred) {
+                    position = i;
+                    break;
+                }
+            }
+            lake = freeLakes[position];
+            setFreeLake(position, freeLakes[--freeLakeCount]);
+        } else {
+            lake = nextLake++;
+            if (base == null && lake == volumes.length) {
+                volumes = Arrays.copyOf(volumes, lake * 2);
+                firstCells = Arrays.copyOf(firstCells, lake * 2);
+            }
+        }
+        return lake;
+    }
+
+    private long volumeOf(int lake) {
+        if (base == null) {
+            return volumes[lake];
+        }
+        Integer slot = lakeSlots.get(lake);
+        return slot == null ? base.volumes[lake] : volumes[slot];
+    }
+
+    private int firstCellOf(int lake) {
+        if (base == null) {
+            return firstCells[lake];
+        }
+        Integer slot = lakeSlots.get(lake);
+        return slot == null ? base.firstCells[lake] : firstCells[slot];
+    }
+
+    private void setLake(int lake, long volume, int first) {
+        int index = lake;
+        if (base != null) {
+            Integer slot = lakeSlots.get(lake);
+            if (slot == null) {
+                slot = lakeSlots.size();
+                lakeSlots.put(lake, slot);
+                if (slot == volumes.length) {
+                    volumes = Arrays.copyOf(volumes, slot * 2);
+                    firstCells = Arrays.copyOf(firstCells, slot * 2);
+                }
+            }
+            index = slot;
+        } else if (logKinds != null) {
+            log(VOLUME, lake, volumes[lake]);
+            log(FIRST_CELL, lake, firstCells[lake]);
+        }
+        volumes[index] = volume;
+        firstCells[index] = first;
+    }
+
+    // Returns the lakes in the order of their names. An overlay merges the lakes of the base solver which it doesn't
+    // change with its own lakes.
+    private Collection<Integer> lakesInOrder() {
+        if (base == null) {
+            return lakesInOrder.values();
+        }
+        List<Integer> result = new ArrayList<>(base.lakesInOrder.size() + lakesInOrder.size());
+        Iterator<Map.Entry<Integer, Integer>> own = lakesInOrder.entrySet().iterator();
+        Map.Entry<Integer, Integer> next = own.hasNext() ? own.next() : null;
+        for (Map.Entry<Integer, Integer> entry : base.lakesInOrder.entrySet()) {
+            if (lakeSlots.containsKey(entry.getValue())) {
+                continue;
+            }
+            while (next != null && next.getKey() < entry.getKey()) {
+                result.add(next.getValue());
+                next = own.hasNext() ? own.next() : null;
+            }
+            result.add(entry.getValue());
+        }
+        while (next != null) {
+            result.add(next.getValue());
+            next = own.hasNext() ? own.next() : null;
+        }
+        return result;
+    }
+
+    // Puts a square at given position of the queue and returns the next position.
+    private int push(int position, int cell) {
+        if (position == queue.length) {
+            queue = Arrays.copyOf(queue, position * 2);
+        }
+        queue[position] = cell;
+        return position + 1;
+    }
+
+    // Returns the score like GameMap.finalMap: sum of square roots of the lake volumes. It only visits the lakes.
+    public double getScore() {
+        double score = 0;
+        for (int lake : lakesInOrder()) {
+            score += Math.sqrt(volumeOf(lake));
+        }
+        return score;
+    }
+
+    // Returns the volumes of the lakes in the order of their names.
+    public long[] getLakeVolumes() {
+        Collection<Integer> lakeOrder = lakesInOrder();
+        long[] result = new long[lakeOrder.size()];
+        int index = 0;
+        for (int lake : lakeOrder) {
+            result[index++] = volumeOf(lake);
+        }
+        return result;
+    }
+
+    // Returns the water levels like WaterCalculator.calculateWaterLevels.
+    public GameMap getWaterMap() {
+        if (isSmall()) {
+            return new WaterCalculator(map).calculateWaterLevels();
+        }
+        Grid water = heights.blank();
+        for (int i = 0; i < water.size(); i++) {
+            water.set(i, levels.get(i) - heights.get(i));
+        }
+        return new GameMap(water);
+    }
+
+    // Returns the final map like GameMap.finalMap. Lakes get their names here, so this method visits the whole map. The
+    // LakeIndex of the map is filled in the same pass.
+    public GameMap getFinalMap() {
+        GameMap waterMap = getWaterMap();
+        if (isSmall()) {
+            return GameMap.finalMap(waterMap, new NameCalculator(waterMap).calculateNames(), map);
+        }
+        int[] names = new int[nextLake];
+        int name = 1;
+        for (int lake : lakesInOrder()) {
+            names[lake] = name++;
+        }
+        Grid lakeNames = heights.blank();
+        Grid water = waterMap.getHeightGrid();
+        LakeIndex index = new LakeIndex(lakeNames, water);
+        for (int i = 0; i < lakeNames.size(); i++) {
+            int lake = names[lakes.get(i)];
+            lakeNames.set(i, lake);
+            if (lake != 0) {
+                index.add(lake, i, water.get(i));
+            }
+        }
+        return GameMap.finalMap(waterMap, GameMap.lakeMap(lakeNames, index), map);
+    }
+}
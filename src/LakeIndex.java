@@ -0,0 +1,228 @@
+// This class keeps the statistics of each lake: area (number of squares), volume (total water), maximum depth, the
+// rectangle around the lake and its spill elevation. It is filled by NameCalculator while the lakes are named, so
+// nothing has to visit the map again to find them. Lakes are found by their numbers (1 is A, 2 is B...) or by a square,
+// which is looked up in the grid of lake numbers.
+// Water over a square leaks to all eight neighbours, so every square of a lake has the same water level (wall + depth).
+// This level is the spill elevation: if the lake gets more water, it flows out over the lowest wall around it. The
+// level needs the wall heights, which NameCalculator doesn't have, so it is known only in the index of a final map
+// (see GameMap.finalMap).
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class LakeIndex {
+    // Bytes of a lake in a SolveSnapshot: area, volume (8 bytes), maximum depth, first square and the rectangle.
+    static final int LAKE_BYTES = 9 * Integer.BYTES;
+
+    private final Grid lakes;
+    private final Grid water;
+    // null if the wall heights are not known.
+    private final Grid walls;
+    private int lakeCount;
+    // Largest lake number. It is bigger than lakeCount if some numbers are not used, which may happen with the row
+    // sweep of NameCalculator.
+    private int largestLake;
+    // Statistics of lake number i are at index i, so index 0 is not used.
+    private int[] areas;
+    private long[] volumes;
+    private int[] maxDepths;
+    private int[] firstCells;
+    private int[] minRows;
+    private int[] maxRows;
+    private int[] minColumns;
+    private int[] maxColumns;
+
+    // Creates an empty index for given lake numbers and water depths. Lakes are added with add.
+    LakeIndex(Grid lakes, Grid water) {
+        this.lakes = lakes;
+        this.water = water;
+        this.walls = null;
+        areas = new int[16];
+        volumes = new long[16];
+        maxDepths = new int[16];
+        firstCells = new int[16];
+        minRows = new int[16];
+        maxRows = new int[16];
+        minColumns = new int[16];
+        maxColumns = new int[16];
+    }
+
+    // Creates an index with the same lakes which also knows the wall heights.
+    private LakeIndex(LakeIndex other, Grid walls) {
+        lakes = other.lakes;
+        water = other.water;
+        this.walls = walls;
+        lakeCount = other.lakeCount;
+        largestLake = other.largestLake;
+        areas = other.areas;
+        volumes = other.volumes;
+        maxDepths = other.maxDepths;
+        firstCells = other.firstCells;
+        minRows = other.minRows;
+        maxRows = other.maxRows;
+        minColumns = other.minColumns;
+        maxColumns = other.maxColumns;
+    }
+
+    // Returns an index with the same lakes whose spill elevations are known. This index is not changed.
+    LakeIndex withWalls(Grid walls) {
+        return new LakeIndex(this, walls);
+    }
+
+    // Adds a square with given water depth to a lake. Squares should be added row by row, so the first square of a lake
+    // is added first.
+    void add(int lake, int cell, int depth) {
+        int row = cell / lakes.getColumnNumber();
+        int column = cell - row * lakes.getColumnNumber();
+        addRun(lake, row, column, column + 1, depth);
+    }
+
+    // Adds the squares of a row from column first to column end - 1 which have the same water depth.
+    void addRun(int lake, int row, int first, int end, int depth) {
+        if (lake >= areas.length) {
+            grow(Math.max(lake + 1, areas.length * 2));
+        }
+        if (areas[lake] == 0) {
+            firstCells[lake] = row * lakes.getColumnNumber() + first;
+            minRows[lake] = row;
+            minColumns[lake] = first;
+            maxColumns[lake] = end - 1;
+            lakeCount++;
+            largestLake = Math.max(largestLake, lake);
+        }
+        areas[lake] += end - first;
+        volumes[lake] += (long) depth * (end - first);
+        maxDepths[lake] = Math.max(maxDepths[lake], depth);
+        maxRows[lake] = row;
+        minColumns[lake] = Math.min(minColumns[lake], first);
+        maxColumns[lake] = Math.max(maxColumns[lake], end - 1);
+    }
+
+    private void grow(int capacity) {
+        areas = Arrays.copyOf(areas, capacity);
+        volumes = Arrays.copyOf(volumes, capacity);
+        maxDepths = Arrays.copyOf(maxDepths, capacity);
+        firstCells = Arrays.copyOf(firstCells, capacity);
+        minRows = Arrays.copyOf(minRows, capacity);
+        maxRows = Arrays.copyOf(maxRows, capacity);
+        minColumns = Arrays.copyOf(minColumns, capacity);
+        maxColumns = Arrays.copyOf(maxColumns, capacity);
+    }
+
+    // Writes the statistics of a lake for SolveSnapshot. Numbers without a lake are written as zeros.
+    void putLake(int lake, ByteBuffer buffer) {
+        boolean known = lake < areas.length;
+        buffer.putInt(known ? areas[lake] : 0).putLong(known ? volumes[lake] : 0)
+                .putInt(known ? maxDepths[lake] : 0).putInt(known ? firstCells[lake] : 0)
+                .putInt(known ? minRows[lake] : 0).putInt(known ? minColumns[lake] : 0)
+                .putInt(known ? maxRows[lake] : 0).putInt(known ? maxColumns[lake] : 0);
+    }
+
+    // Reads the statistics of a lake which are written by putLake.
+    void readLake(int lake, ByteBuffer buffer) {
+        int area = buffer.getInt();
+        long volume = buffer.getLong();
+        int maxDepth = buffer.getInt();
+        int first = buffer.getInt();
+        int minRow = buffer.getInt();
+        int minColumn = buffer.getInt();
+        int maxRow = buffer.getInt();
+        int maxColumn = buffer.getInt();
+        if (area == 0) {
+            return;
+        }
+        if (lake >= areas.length) {
+            grow(Math.max(lake + 1, areas.length * 2));
+        }
+        areas[lake] = area;
+        volumes[lake] = volume;
+        maxDepths[lake] = maxDepth;
+        firstCells[lake] = first;
+        minRows[lake] = minRow;
+        minColumns[lake] = minColumn;
+        maxRows[lake] = maxRow;
+        maxColumns[lake] = maxColumn;
+        lakeCount++;
+        largestLake = Math.max(largestLake, lake);
+    }
+
+    // Returns true if the index is made from given water depths.
+    boolean isFor(Grid water) {
+        return this.water == water;
+    }
+
+    public static final class Lake {
+        public final int number;
+        public final String name;
+        // Number of squares.
+        public final int area;
+        public final long volume;
+        public final int maxDepth;
+        // The rectangle around the lake, inclusive.
+        public final int minRow;
+        public final int minColumn;
+        public final int maxRow;
+        public final int maxColumn;
+        // Water level of the lake, or -1 if the wall heights are not known.
+        public final int spillElevation;
+
+        Lake(int number, int area, long volume, int maxDepth, int minRow, int minColumn, int maxRow, int maxColumn,
+             int spillElevation) {
+            this.number = number;
+            this.name = NameCreator.nameOf(number);
+            this.area = area;
+            this.volume = volume;
+            this.maxDepth = maxDepth;
+            this.minRow = minRow;
+            this.minColumn = minColumn;
+            this.maxRow = maxRow;
+            this.maxColumn = maxColumn;
+            this.spillElevation = spillElevation;
+        }
+    }
+
+    public int getLakeCount() {
+        return lakeCount;
+    }
+
+    // Largest lake number. Numbers from 1 to this number which are not used have no lake.
+    public int getLargestLake() {
+        return largestLake;
+    }
+
+    // Returns the statistics of a lake, or throws an IllegalArgumentException if there is no lake with this number.
+    public Lake getLake(int lake) {
+        if (lake < 1 || lake > largestLake || areas[lake] == 0) {
+            throw new IllegalArgumentException("There is no lake " + lake);
+        }
+        int first = firstCells[lake];
+        int spill = walls == null ? -1 : walls.get(first) + water.get(first);
+        return new Lake(lake, areas[lake], volumes[lake], maxDepths[lake], minRows[lake], minColumns[lake],
+                maxRows[lake], maxColumns[lake], spill);
+    }
+
+    // Returns the lake number of a square, or 0 if the square is not in a lake.
+    public int lakeAt(int row, int column) {
+        return lakes.get(row, column);
+    }
+
+    // Returns the lake of a square, or null if the square is not in a lake.
+    public Lake getLakeAt(int row, int column) {
+        int lake = lakeAt(row, column);
+        return lake == 0 ? null : getLake(lake);
+    }
+
+    public long getVolume(int lake) {
+        return lake >= 1 && lake <= largestLake ? volumes[lake] : 0;
+    }
+
+    // Sum of the square roots of the volumes, which is the score of the map.
+    public double getScore() {
+        double score = 0;
+        for (int lake = 1; lake <= largestLake; lake++) {
+            if (volumes[lake] > 0) {
+                score += Math.sqrt(volumes[lake]);
+            }
+        }
+        return score;
+    }
+}
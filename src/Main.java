@@ -1,19 +1,90 @@
 // This class is just used for crating the instances and calling print functions. Detailed explanation of each class is
 // given in appropriate places.
+// Input file and water engine can be given as arguments, e.g. "java Main input.txt frame_sweep". If they are not given,
+// input9.txt and the priority flood engine are used. The priority flood is the reference engine; the frame sweep may
+// give more water on maps where water leaks diagonally to the outer walls (see WaterCalculator.Engine). With -Dradegast.metrics=true, time and allocations of each step
+// are printed at the end (see PipelineMetrics). If a third argument is given, water depths and lake numbers of each
+// square are also written into that file, as CSV if it ends with ".csv", as a snapshot if it ends with ".trws" (see
+// SolveSnapshot) and in the binary format of BandSolver otherwise (see MapWriter). If the input file is a snapshot, the
+// solver for the stones starts from it instead of solving the map again.
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 public class Main {
-    public static void main(String[] args) throws FileNotFoundException {
-        GameMap map = new GameMap("input9.txt");
+    public static void main(String[] args) {
+        String input = args.length > 0 ? args[0] : "input9.txt";
+        WaterCalculator.Engine engine = WaterCalculator.Engine.PRIORITY_FLOOD;
+        if (args.length > 1) {
+            try {
+                engine = WaterCalculator.Engine.valueOf(args[1].toUpperCase());
+            } catch (IllegalArgumentException ex) {
+                System.out.println("Unknown engine: " + args[1]);
+                System.exit(1);
+            }
+        }
+        GameMap map = null;
+        IncrementalSolver solver = null;
+        try {
+            if (SolveSnapshot.isSnapshot(input)) {
+                try (SolveSnapshot snapshot = SolveSnapshot.open(input)) {
+                    map = snapshot.getHeightMap();
+                    solver = snapshot.newSolver();
+                }
+            } else {
+                map = new GameMap(input);
+                solver = new IncrementalSolver(map);
+            }
+        } catch (FileNotFoundException ex) {
+            System.out.println("File doesn't exist");
+            System.exit(1);
+        } catch (IOException ex) {
+            System.out.println(ex.getMessage());
+            System.exit(1);
+        }
         map.printMap(false);
-        map.makeModifications();
-        WaterCalculator waterCalculator = new WaterCalculator(map);
+        // Score is shown after each stone. It is calculated again only for the changed part of the map.
+        map.makeModifications(solver);
+        WaterCalculator waterCalculator = new WaterCalculator(map, engine);
         GameMap heightsMap = waterCalculator.calculateWaterLevels();
         NameCalculator nameCalculator = new NameCalculator(heightsMap);
         GameMap namesMap = nameCalculator.calculateNames();
         GameMap finalMap = GameMap.finalMap(heightsMap, namesMap, map);
         finalMap.printMap(true);
         finalMap.printScore();
+        if (args.length > 2 && args[2].endsWith(".trws")) {
+            try {
+                SolveSnapshot.write(args[2], map, heightsMap, namesMap, finalMap);
+            } catch (IOException ex) {
+                System.out.println();
+                System.out.println("Can't write " + args[2] + ": " + ex.getMessage());
+                System.exit(1);
+            }
+        } else if (args.length > 2) {
+            export(args[2], heightsMap, namesMap);
+        }
+        if (PipelineMetrics.isEnabled()) {
+            System.out.println();
+            System.out.print(PipelineMetrics.snapshot());
+        }
 
     }
+    private static void export(String output, GameMap heightsMap, GameMap namesMap) {
+        try (FileChannel channel = FileChannel.open(Paths.get(output), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MapWriter writer = new MapWriter(channel);
+            if (output.endsWith(".csv")) {
+                writer.writeCsv(heightsMap.getHeightGrid(), namesMap.getLakeGrid());
+            } else {
+                writer.writeBinary(heightsMap.getHeightGrid(), namesMap.getLakeGrid());
+            }
+            writer.flush();
+        } catch (IOException ex) {
+            System.out.println();
+            System.out.println("Can't write " + output + ": " + ex.getMessage());
+            System.exit(1);
+        }
+    }
 }
\ No newline at end of file
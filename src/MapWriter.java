@@ -0,0 +1,161 @@
+// This class writes maps into a WritableByteChannel, e.g. a file or Channels.newChannel(System.out). Each row is
+// rendered into a StringBuilder and copied into a ByteBuffer, and both are used again for the next rows, so the channel
+// gets one write for many rows instead of a print call for each square. Maps are written in the same text as
+// GameMap.printMap. Water depths and lake numbers can also be exported as CSV or in the binary format of BandSolver, so
+// other programs don't need to read the printed map. flush should be called after the last write.
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+public class MapWriter {
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final WritableByteChannel channel;
+    private final StringBuilder line = new StringBuilder();
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+    public MapWriter(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    // Writes the heights like printMap of a height map. If a number is smaller than 10, one more space is left before
+    // it to prevent shifting to the right. If space is false, the last number of the first row has no space after it.
+    public void writeHeights(Grid heights, boolean space) throws IOException {
+        int rows = heights.getRowNumber();
+        int columns = heights.getColumnNumber();
+        for (int row = 0; row < rows; row++) {
+            appendRowNumber(row);
+            for (int column = 0; column < columns; column++) {
+                int height = heights.get(row, column);
+                if (height < 10) {
+                    line.append(' ');
+                }
+                line.append(height);
+                if (row != 0 || column != columns - 1 || space) {
+                    line.append(' ');
+                }
+            }
+            endLine();
+        }
+        writeColumnLetters(columns);
+    }
+
+    // Writes the lake names like printMap of a names map. If walls is given, squares without a lake show their wall
+    // height, like the final map.
+    public void writeLakes(Grid lakes, Grid walls) throws IOException {
+        int rows = lakes.getRowNumber();
+        int columns = lakes.getColumnNumber();
+        for (int row = 0; row < rows; row++) {
+            appendRowNumber(row);
+            for (int column = 0; column < columns; column++) {
+                int lake = lakes.get(row, column);
+                // A space is added in front of the text if it is shorter than 2 letters.
+                int start = line.length();
+                if (lake == 0 && walls != null) {
+                    line.append(walls.get(row, column));
+                } else {
+                    NameCreator.appendName(lake, line);
+                }
+                if (line.length() - start == 1) {
+                    char letter = line.charAt(start);
+                    line.setCharAt(start, ' ');
+                    line.append(letter);
+                } else if (line.length() == start) {
+                    line.append(' ');
+                }
+                line.append(' ');
+            }
+            endLine();
+        }
+        writeColumnLetters(columns);
+    }
+
+    // Writes a line "row,column,depth,lake" for each square after a header line. Lakes are given by their numbers, 0
+    // means that there is no lake.
+    public void writeCsv(Grid water, Grid lakes) throws IOException {
+        int rows = water.getRowNumber();
+        int columns = water.getColumnNumber();
+        line.append("row,column,depth,lake");
+        endLine();
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                line.append(row).append(',').append(column).append(',').append(water.get(row, column)).append(',')
+                        .append(lakes.get(row, column));
+                endLine();
+            }
+        }
+    }
+
+    // Writes the water depths and lake numbers in the format of BandSolver: a header of four little-endian ints
+    // (BandSolver.OUTPUT_MAGIC, column number, row number and number of lakes), then all depths and all lake numbers
+    // row by row. Lakes should be numbered from 1 like NameCalculator does, so the largest number is the number of
+    // lakes.
+    public void writeBinary(Grid water, Grid lakes) throws IOException {
+        int lakeCount = 0;
+        for (int i = 0; i < lakes.size(); i++) {
+            lakeCount = Math.max(lakeCount, lakes.get(i));
+        }
+        putInt(BandSolver.OUTPUT_MAGIC);
+        putInt(water.getColumnNumber());
+        putInt(water.getRowNumber());
+        putInt(lakeCount);
+        for (int i = 0; i < water.size(); i++) {
+            putInt(water.get(i));
+        }
+        for (int i = 0; i < lakes.size(); i++) {
+            putInt(lakes.get(i));
+        }
+    }
+
+    // Writes everything which is still in the buffer.
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void appendRowNumber(int row) {
+        line.append(row < 10 ? "  " : " ").append(row).append(' ');
+    }
+
+    // Writes the last row of the map like a chessboard (a,b,c,d...). Columns are named like lakes but with small
+    // letters, so after zz comes aaa.
+    private void writeColumnLetters(int columns) throws IOException {
+        line.append("    ");
+        for (int column = 0; column < columns; column++) {
+            int start = line.length();
+            NameCreator.appendName(column + 1, line);
+            for (int i = start; i < line.length(); i++) {
+                line.setCharAt(i, Character.toLowerCase(line.charAt(i)));
+            }
+            if (column < 26) {
+                line.insert(start, ' ');
+            }
+            line.append(' ');
+        }
+        endLine();
+    }
+
+    // Copies the line into the buffer. Maps are written only with ASCII letters, so each char is one byte.
+    private void endLine() throws IOException {
+        line.append(LINE_SEPARATOR);
+        for (int i = 0; i < line.length(); i++) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.put((byte) line.charAt(i));
+        }
+        line.setLength(0);
+    }
+
+    private void putInt(int value) throws IOException {
+        if (buffer.remaining() < Integer.BYTES) {
+            flush();
+        }
+        buffer.putInt(value);
+    }
+}
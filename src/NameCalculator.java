@@ -1,88 +1,133 @@
 // This class is used to name the lakes from left to right. If there is a named neighbour lake around a square, then
 // this square should be named with the smallest name of the neighbours. If this is not the case, then we need to get
-// first suitable name from the NameCreator class.
+// first suitable name from a NameCreator, which is created for each naming. Lakes are kept as numbers (1 is A, 2 is
+// B...) and 0 means that there is no lake on the square. Smaller numbers are smaller names. While the lakes are named,
+// their area, volume, depth and position are put into a LakeIndex, which is kept by the returned map.
+
+import java.util.Arrays;
+
 public class NameCalculator {
-    private int[][] water;
-    private String[][] names;
+    // There are two engines. ROW_SWEEP is the original row by row traverse which goes back to the upper rows when it
+    // finds a diagonal leak. UNION_FIND finds the lakes as connected groups of squares and visits every square twice.
+    public enum Engine {
+        ROW_SWEEP,
+        UNION_FIND
+    }
+
+    private Grid water;
+    private Grid names;
+    private LakeIndex index;
+    private Engine engine;
+    // Times the last row sweep went back to an upper row (see PipelineMetrics).
+    private long goUpperRestarts;
 
     // This constructor takes a map which contains water levels above the walls.
     public NameCalculator(GameMap map) {
-        water = map.getHeights();
-        names = new String[water.length][water[0].length];
-        for (int i = 0; i < names.length; i++) {
-            for (int j = 0; j < names[0].length; j++) {
-                names[i][j] = "";
-            }
-        }
+        this(map, Engine.UNION_FIND);
     }
 
-    // This method is used for finding the smallest(lexicographically) name from given parameters. Neighbour lake names
-    // are given as parameters.
-    private String findMinimumName(String... names) {
-        String minimumName = "ZZZ";
-        for (String name : names) {
-            if (name.compareTo(minimumName) < 0 && name.compareTo("") != 0) {
-                minimumName = name;
-            }
-        }
-        if (minimumName.length() == 3) {
-            minimumName = "";
+    public NameCalculator(GameMap map, Engine engine) {
+        this.engine = engine;
+        water = map.getHeightGrid();
+        names = water.blank();
+        index = new LakeIndex(names, water);
+    }
+
+    // This method is used for finding the smallest name from given parameters. Neighbour lake numbers are given as
+    // parameters. It returns 0 if none of the neighbours is a lake.
+    private static int findMinimumName(int first, int second, int third, int fourth, int fifth, int sixth, int seventh,
+                                       int eighth) {
+        int minimumName = Integer.MAX_VALUE;
+        minimumName = smallerName(minimumName, first);
+        minimumName = smallerName(minimumName, second);
+        minimumName = smallerName(minimumName, third);
+        minimumName = smallerName(minimumName, fourth);
+        minimumName = smallerName(minimumName, fifth);
+        minimumName = smallerName(minimumName, sixth);
+        minimumName = smallerName(minimumName, seventh);
+        minimumName = smallerName(minimumName, eighth);
+        return minimumName == Integer.MAX_VALUE ? 0 : minimumName;
+    }
+
+    private static int smallerName(int minimumName, int name) {
+        return name != 0 && name < minimumName ? name : minimumName;
+    }
+
+    // This method names the lakes with the selected engine and returns a map that stores these names.
+    public GameMap calculateNames() {
+        PipelineMetrics.Timer timer = PipelineMetrics.start(PipelineMetrics.Stage.NAMES);
+        GameMap result;
+        if (engine == Engine.ROW_SWEEP) {
+            result = calculateWithRowSweep();
+            timer.count(PipelineMetrics.Counter.GO_UPPER_RESTARTS, goUpperRestarts);
+        } else if (water instanceof RunLengthGrid) {
+            result = calculateWithRuns((RunLengthGrid) water);
+        } else {
+            result = calculateWithUnionFind();
         }
-        return minimumName;
+        timer.stop();
+        return result;
+    }
+
+    public long getGoUpperRestarts() {
+        return goUpperRestarts;
     }
 
     // This method looks to the names of the neighbours. If neighbours have a name. It chooses the smallest one among
-    // them. But if there is no water around a square, it gets a suitable name from NameCreator class.
+    // them. But if there is no water around a square, it gets a suitable name from NameCreator.
     // This method starts traversing from first row(not zeroth since there can't be a lake at zeroth row) first column,
     // and traverses up to last - 1 row and last -1 column. If there is a leak from diagonals, there may be wrongly named
     // lakes in the upper rows. If it detects such situations it turns to the upper rows and starts naming them again.
-    public GameMap calculateNames() {
+    private GameMap calculateWithRowSweep() {
+        NameCreator nameCreator = new NameCreator();
+        goUpperRestarts = 0;
         int row = 1;
-        if (water.length <= 2 || water[0].length <= 2) {
-            return new GameMap(names);
+        if (water.getRowNumber() <= 2 || water.getColumnNumber() <= 2) {
+            return GameMap.lakeMap(names, index);
         }
-        while (row < water.length - 1) {
+        while (row < water.getRowNumber() - 1) {
             boolean goUpper = false;
             boolean hasChanged = false;
-            for (int i = 1; i < water[0].length - 1; i++) {
+            for (int i = 1; i < water.getColumnNumber() - 1; i++) {
                 // Find the names of the neighbours.
-                String leftName = names[row][i - 1];
-                String rightName = names[row][i + 1];
-                String upperName = names[row - 1][i];
-                String lowerName = names[row + 1][i];
-                String rightUpperName = names[row - 1][i + 1];
-                String leftUpperName = names[row - 1][i - 1];
-                String leftLowerName = names[row + 1][i - 1];
-                String rightLowerName = names[row + 1][i + 1];
-                String currentName = names[row][i];
-                int currentWater = water[row][i];
-                int leftUpperWater = water[row - 1][i - 1];
-                int rightUpperWater = water[row - 1][i + 1];
-                String minName = findMinimumName(leftName, rightName, upperName, lowerName, rightUpperName, rightLowerName, leftLowerName, leftUpperName);
+                int leftName = names.get(row, i - 1);
+                int rightName = names.get(row, i + 1);
+                int upperName = names.get(row - 1, i);
+                int lowerName = names.get(row + 1, i);
+                int rightUpperName = names.get(row - 1, i + 1);
+                int leftUpperName = names.get(row - 1, i - 1);
+                int leftLowerName = names.get(row + 1, i - 1);
+                int rightLowerName = names.get(row + 1, i + 1);
+                int currentName = names.get(row, i);
+                int currentWater = water.get(row, i);
+                int leftUpperWater = water.get(row - 1, i - 1);
+                int rightUpperWater = water.get(row - 1, i + 1);
+                int minName = findMinimumName(leftName, rightName, upperName, lowerName, rightUpperName, rightLowerName, leftLowerName, leftUpperName);
                 // If there is water above the current wall, then square should be a lake.
                 if (currentWater > 0) {
-                    if (minName.equals("") && currentName.equals("")) {
-                        currentName = NameCreator.setLakeName();
-                        names[row][i] = currentName;
+                    if (minName == 0 && currentName == 0) {
+                        currentName = nameCreator.setLakeName();
+                        names.set(row, i, currentName);
                         hasChanged = true;
-                    } else if (!minName.equals("") && currentName.equals("")) {
+                    } else if (minName != 0 && currentName == 0) {
                         currentName = minName;
-                        NameCreator.increaseCount(minName);
-                        names[row][i] = currentName;
+                        nameCreator.increaseCount(minName);
+                        names.set(row, i, currentName);
                         hasChanged = true;
-                    } else if (!minName.equals("") && !currentName.equals("") && minName.compareTo(currentName) < 0) {
-                        NameCreator.decreaseCount(currentName);
+                    } else if (minName != 0 && currentName != 0 && minName < currentName) {
+                        nameCreator.decreaseCount(currentName);
                         currentName = minName;
-                        NameCreator.increaseCount(minName);
-                        names[row][i] = currentName;
+                        nameCreator.increaseCount(minName);
+                        names.set(row, i, currentName);
                         hasChanged = true;
                     }
                 }
-                if (currentWater > 0 && leftUpperWater > 0 && rightUpperWater > 0 && !leftUpperName.equals(rightUpperName)) {
+                if (currentWater > 0 && leftUpperWater > 0 && rightUpperWater > 0 && leftUpperName != rightUpperName) {
                     goUpper = true;
                 }
             }
             if (goUpper) {
+                goUpperRestarts++;
                 row--;
                 continue;
             }
@@ -90,6 +135,184 @@ public class NameCalculator {
                 row++;
             }
         }
-        return new GameMap(names);
+        // Names may change until the end of the sweep, so the index is filled after it.
+        for (int cell = 0; cell < names.size(); cell++) {
+            if (names.get(cell) != 0) {
+                index.add(names.get(cell), cell, water.get(cell));
+            }
+        }
+        return GameMap.lakeMap(names, index);
+    }
+
+    // This method names the lakes without going back to the upper rows. Squares with water are joined into groups
+    // (disjoint sets) with their neighbours, including the diagonal ones like the method above.
+    // 1: Traverse the inner squares from left to right and top to bottom. A square with water starts its own group and
+    // it is joined with the groups of its left, upper left, upper and upper right neighbours, since they are already
+    // visited. When two groups are joined, the group whose first square comes first in the traverse is kept as the
+    // root, so the root of a lake is always its first square.
+    // 2: Traverse the squares again in the same order. When the root of a lake is reached, the lake gets the next
+    // number. Other squares get the number of their root. So lakes are named A, B, C... in the order their first
+    // squares appear. Each square is also added to the LakeIndex here.
+    private GameMap calculateWithUnionFind() {
+        int rows = water.getRowNumber();
+        int columns = water.getColumnNumber();
+        if (rows <= 2 || columns <= 2) {
+            return GameMap.lakeMap(names, index);
+        }
+        // parent[cell] is -1 for a square without water. After stage 2 it holds the lake number of root squares.
+        int[] parent = new int[rows * columns];
+        Arrays.fill(parent, -1);
+        // Stage 1
+        for (int row = 1; row < rows - 1; row++) {
+            for (int column = 1; column < columns - 1; column++) {
+                int cell = row * columns + column;
+                if (water.get(cell) <= 0) {
+                    continue;
+                }
+                parent[cell] = cell;
+                join(parent, cell, cell - 1);
+                join(parent, cell, cell - columns - 1);
+                join(parent, cell, cell - columns);
+                join(parent, cell, cell - columns + 1);
+            }
+        }
+        // Stage 2
+        int lakeCount = 0;
+        for (int row = 1; row < rows - 1; row++) {
+            for (int column = 1; column < columns - 1; column++) {
+                int cell = row * columns + column;
+                if (parent[cell] == -1) {
+                    continue;
+                }
+                int root = findRoot(parent, cell);
+                if (root == cell) {
+                    // The root is replaced with its lake number. It is stored as -(number + 1), so it can't be
+                    // confused with -1 or a square index.
+                    lakeCount++;
+                    parent[cell] = -(lakeCount + 1);
+                }
+                int lake = -parent[root] - 1;
+                names.set(cell, lake);
+                index.add(lake, cell, water.get(cell));
+            }
+        }
+        return GameMap.lakeMap(names, index);
+    }
+
+    // This method names the lakes of water heights kept in a RunLengthGrid like the method above, but it joins runs
+    // instead of squares. A run is joined with the run before it in the same row and with the runs of the upper row
+    // which share a column with it or touch it diagonally, if they have water. Runs are numbered row by row, so the
+    // root of a lake is still its first run. Lake numbers are also written run by run, so dry plateaus are not visited
+    // square by square. Only inner squares can be lakes, so the first and the last column are cut off from the runs.
+    private GameMap calculateWithRuns(RunLengthGrid runs) {
+        int rows = runs.getRowNumber();
+        int columns = runs.getColumnNumber();
+        if (rows <= 2 || columns <= 2) {
+            return GameMap.lakeMap(names, index);
+        }
+        int[] rowOffsets = new int[rows + 1];
+        for (int row = 0; row < rows; row++) {
+            rowOffsets[row + 1] = rowOffsets[row] + runs.runCount(row);
+        }
+        int[] parent = new int[rowOffsets[rows]];
+        Arrays.fill(parent, -1);
+        // Stage 1
+        for (int row = 1; row < rows - 1; row++) {
+            for (int run = 0; run < runs.runCount(row); run++) {
+                int first = Math.max(runs.runStart(row, run), 1);
+                int end = Math.min(runs.runEnd(row, run), columns - 1);
+                if (first >= end || runs.runValue(row, run) <= 0) {
+                    continue;
+                }
+                int id = rowOffsets[row] + run;
+                parent[id] = id;
+                if (run > 0) {
+                    join(parent, id, id - 1);
+                }
+                int from = runs.findRun(row - 1, first - 1);
+                int to = runs.findRun(row - 1, end);
+                for (int upper = from; upper <= to; upper++) {
+                    join(parent, id, rowOffsets[row - 1] + upper);
+                }
+            }
+        }
+        // Stage 2
+        int lakeCount = 0;
+        int[] starts = new int[16];
+        int[] lakes = new int[16];
+        for (int row = 1; row < rows - 1; row++) {
+            int count = 0;
+            for (int run = 0; run < runs.runCount(row); run++) {
+                if (count + 3 > starts.length) {
+                    starts = Arrays.copyOf(starts, starts.length * 2);
+                    lakes = Arrays.copyOf(lakes, lakes.length * 2);
+                }
+                int id = rowOffsets[row] + run;
+                int runStart = runs.runStart(row, run);
+                if (parent[id] == -1) {
+                    starts[count] = runStart;
+                    lakes[count++] = 0;
+                    continue;
+                }
+                int root = findRoot(parent, id);
+                if (root == id) {
+                    lakeCount++;
+                    parent[id] = -(lakeCount + 1);
+                }
+                int lake = -parent[root] - 1;
+                int first = Math.max(runStart, 1);
+                int end = Math.min(runs.runEnd(row, run), columns - 1);
+                index.addRun(lake, row, first, end, runs.runValue(row, run));
+                // The cut off squares of the first and the last column stay without a lake.
+                starts[count] = runStart;
+                lakes[count++] = 0;
+                starts[count] = first;
+                lakes[count++] = lake;
+                starts[count] = end;
+                lakes[count++] = 0;
+            }
+            ((RunLengthGrid) names).setRow(row, starts, lakes, compactRow(starts, lakes, count, columns));
+        }
+        return GameMap.lakeMap(names, index);
+    }
+
+    // Removes the empty runs which calculateWithRuns adds next to the cut off squares. Returns the number of runs left.
+    private static int compactRow(int[] starts, int[] lakes, int count, int columns) {
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            int end = i + 1 < count ? starts[i + 1] : columns;
+            if (starts[i] < end) {
+                starts[length] = starts[i];
+                lakes[length++] = lakes[i];
+            }
+        }
+        return length;
+    }
+
+    // Joins the groups of two squares if the second one has water. The smaller root becomes the root of both.
+    private static void join(int[] parent, int cell, int neighbour) {
+        if (parent[neighbour] == -1) {
+            return;
+        }
+        int first = findRoot(parent, cell);
+        int second = findRoot(parent, neighbour);
+        if (first < second) {
+            parent[second] = first;
+        } else if (second < first) {
+            parent[first] = second;
+        }
+    }
+
+    // Finds the root of a square. Every visited square is pointed to its grandparent, so later searches are shorter.
+    // Roots which already have a lake number (stage 2) point to nothing, so they are returned as they are.
+    private static int findRoot(int[] parent, int cell) {
+        while (parent[cell] >= 0 && parent[cell] != cell) {
+            int next = parent[cell];
+            if (parent[next] >= 0) {
+                parent[cell] = parent[next];
+            }
+            cell = next;
+        }
+        return cell;
     }
 }
@@ -1,62 +1,82 @@
-// This class is used for calculating the possible smallest(lexicographically) lake name. Since it will not be initiated,
-// it is static.
-public abstract class NameCreator {
-    private static String[] alphabet = {"A", "B", "C", "D", "E", "F", "G", "H", "I", "J", "K", "L", "M", "N", "O", "P", "Q", "R", "S", "T", "U", "V", "W", "X", "Y", "Z"};
-
-    private static int[] nameCounts = new int[27 * 26];
-
-    // This method returns the first possible lake name. This class is used when there is no lake around a square.
-    public static String setLakeName() {
-        String name = "";
-        for (int i = 0; i < 27 * 26; i++) {
-            if (nameCounts[i] != 0) {
-                continue;
-            }
-            if (i < 26) {
-                name = alphabet[i];
-            } else {
-                name = alphabet[i / 26 - 1] + alphabet[i % 26];
+// This class is used for calculating the possible smallest lake name. Each naming of a map creates its own instance,
+// so names of one map don't affect another map, and maps can be named one after the other or at the same time in
+// different threads. Methods are also synchronized, so an instance can be shared if it is needed.
+// Lakes are kept as numbers: 1 is A, 26 is Z, 27 is AA, 702 is ZZ, 703 is AAA and so on, so there is no limit on the
+// number of lakes. Names are created from the numbers only when they are printed.
+import java.util.Arrays;
+
+public class NameCreator {
+    private static final char[] alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+
+    // nameCounts[lake] is the area of the lake. Index 0 is not used, since 0 means that there is no lake.
+    private int[] nameCounts;
+    // Every lake number below nextName has been given before. The ones whose area became zero are kept in freeNames,
+    // which is a min-heap, so the smallest free number is found in O(log n) instead of searching all numbers.
+    private int nextName;
+    private final CellHeap freeNames;
+
+    public NameCreator() {
+        nameCounts = new int[64];
+        nextName = 1;
+        freeNames = new CellHeap(16);
+    }
+
+    // This method returns the first possible lake number. This class is used when there is no lake around a square.
+    public synchronized int setLakeName() {
+        int lake;
+        if (!freeNames.isEmpty()) {
+            lake = freeNames.pop();
+        } else {
+            lake = nextName++;
+            if (lake == nameCounts.length) {
+                nameCounts = Arrays.copyOf(nameCounts, nameCounts.length * 2);
             }
-            nameCounts[i] = 1;
-            break;
         }
-        return name;
+        nameCounts[lake] = 1;
+        return lake;
     }
 
     // Since this class tracks the total area(not volume) of a lake, if there is a neighbour lake around a square,
     // we need to increase the number of this lake because we will set this name to the current square.
-    public static void increaseCount(String name) {
-        if (name.length() == 1) {
-            for (int i = 0; i < 26; i++) {
-                if (name.equals(alphabet[i])) {
-                    nameCounts[i]++;
-                    break;
-                }
-            }
-        } else if (name.length() == 2) {
-            int firstIndex = name.charAt(0) - 65;
-            int secondIndex = name.charAt(1) - 65;
-            int realIndex = (firstIndex + 1) * 26 + secondIndex;
-            nameCounts[realIndex]++;
-        }
+    public synchronized void increaseCount(int lake) {
+        nameCounts[lake]++;
     }
 
     // If a lake is changed to a smaller name than the number of this lake should be decreased to make it suitable for
-    // future use.
-    public static void decreaseCount(String name) {
-        if (name.length() == 1) {
-            for (int i = 0; i < 26; i++) {
-                if (name.equals(alphabet[i])) {
-                    nameCounts[i]--;
-                    break;
-                }
-            }
-        } else if (name.length() == 2) {
-            int firstIndex = name.charAt(0) - 65;
-            int secondIndex = name.charAt(1) - 65;
-            int realIndex = (firstIndex + 1) * 26 + secondIndex;
-            nameCounts[realIndex]--;
+    // future use. When no square has the name anymore, it becomes free.
+    public synchronized void decreaseCount(int lake) {
+        nameCounts[lake]--;
+        if (nameCounts[lake] == 0) {
+            freeNames.push(lake, lake);
+        }
+    }
+
+    // This method returns the name of the lake with given number. Names are like column names of a spreadsheet: after
+    // Z comes AA, after ZZ comes AAA. It returns an empty name for 0.
+    public static String nameOf(int lake) {
+        char[] name = new char[8];
+        int position = name.length;
+        while (lake > 0) {
+            lake--;
+            name[--position] = alphabet[lake % 26];
+            lake /= 26;
         }
+        return new String(name, position, name.length - position);
     }
 
+    // Appends the name of the lake like nameOf, without creating a string. It appends nothing for 0.
+    public static void appendName(int lake, StringBuilder builder) {
+        int start = builder.length();
+        while (lake > 0) {
+            lake--;
+            builder.append(alphabet[lake % 26]);
+            lake /= 26;
+        }
+        // Letters are appended from the last one.
+        for (int i = start, j = builder.length() - 1; i < j; i++, j--) {
+            char letter = builder.charAt(i);
+            builder.setCharAt(i, builder.charAt(j));
+            builder.setCharAt(j, letter);
+        }
+    }
 }
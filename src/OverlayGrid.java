@@ -0,0 +1,147 @@
+// This class is a grid which keeps only its changed squares, on top of a base grid which is not changed. A square which
+// is not changed is read from the base grid. Changed squares are kept in a hash table with open addressing, so the
+// memory depends on the number of changed squares, not on the size of the grid. When a square is set back to its value
+// in the base grid, it is removed from the table. The base grid must not be changed while the overlay is used, and
+// then many overlays can share the same base grid in different threads.
+import java.util.Arrays;
+
+public class OverlayGrid extends Grid {
+    private static final int EMPTY = -1;
+
+    // null means a base grid of zeros.
+    private final Grid base;
+    // Squares and their values. The length is a power of two and at most half of the slots are used.
+    private int[] keys;
+    private int[] values;
+    private int count;
+    // 32 - log2(keys.length), for taking the high bits of the hash.
+    private int shift;
+
+    public OverlayGrid(Grid base) {
+        super(base.getRowNumber(), base.getColumnNumber());
+        this.base = base;
+        clear();
+    }
+
+    // Creates an overlay on a grid of zeros, which is never created.
+    public OverlayGrid(int rowNumber, int columnNumber) {
+        super(rowNumber, columnNumber);
+        this.base = null;
+        clear();
+    }
+
+    private int baseValue(int index) {
+        return base == null ? 0 : base.get(index);
+    }
+
+    private int slot(int index) {
+        return (index * 0x9E3779B9) >>> shift;
+    }
+
+    @Override
+    public int get(int index) {
+        if (count > 0) {
+            for (int slot = slot(index); keys[slot] != EMPTY; slot = (slot + 1) & (keys.length - 1)) {
+                if (keys[slot] == index) {
+                    return values[slot];
+                }
+            }
+        }
+        return baseValue(index);
+    }
+
+    @Override
+    public void set(int index, int value) {
+        if (value == baseValue(index)) {
+            remove(index);
+            return;
+        }
+        int slot = slot(index);
+        for (; keys[slot] != EMPTY; slot = (slot + 1) & (keys.length - 1)) {
+            if (keys[slot] == index) {
+                values[slot] = value;
+                return;
+            }
+        }
+        keys[slot] = index;
+        values[slot] = value;
+        count++;
+        if (2 * count > keys.length) {
+            resize(keys.length * 2);
+        }
+    }
+
+    // Removes a square from the table. Squares after it in the same run are moved back, so every square can still be
+    // found from its own slot without passing an empty slot.
+    private void remove(int index) {
+        if (count == 0) {
+            return;
+        }
+        int mask = keys.length - 1;
+        int slot = slot(index);
+        while (keys[slot] != index) {
+            if (keys[slot] == EMPTY) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        count--;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+            int home = slot(keys[next]);
+            // The square at next can fill the hole if its own slot is not between the hole and next.
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+        keys[hole] = EMPTY;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slot(oldKeys[i]);
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    // Number of squares which are different from the base grid.
+    public int changedCount() {
+        return count;
+    }
+
+    // Makes every square equal to the base grid again.
+    public void clear() {
+        if (keys != null && keys.length == 16) {
+            if (count > 0) {
+                Arrays.fill(keys, EMPTY);
+                count = 0;
+            }
+            return;
+        }
+        keys = new int[16];
+        values = new int[16];
+        Arrays.fill(keys, EMPTY);
+        shift = 32 - 4;
+        count = 0;
+    }
+
+    // The new grid is filled by its user, so it is not an overlay but a grid with the storage of the base grid.
+    @Override
+    public Grid blank() {
+        return base == null ? Grid.onHeap(rowNumber, columnNumber) : base.blank();
+    }
+}
@@ -0,0 +1,235 @@
+// This class measures the steps of the pipeline: parsing the input, water levels, lake names and the final map. For
+// each step the time, the bytes allocated by the thread and some counters of the calculators are recorded:
+// - FRAME_PASSES: passes over a frame in the frame sweep of WaterCalculator.
+// - GO_OUTER_RESTARTS: times the frame sweep goes back to an outer frame because of a diagonal leak.
+// - GO_UPPER_RESTARTS: times the row sweep of NameCalculator goes back to an upper row.
+// Measurements are added to totals which can be read with snapshot(), and each step is also sent as a JFR event
+// (radegast.PipelineStep) when a flight recording is running. Totals are collected only after setEnabled(true) or with
+// -Dradegast.metrics=true. If both are off, start returns a timer which does nothing, so the cost is a few checks for
+// each step. Allocated bytes are counted only for the thread which runs the step, so the threads of PARALLEL_FLOOD are
+// not included.
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+public final class PipelineMetrics {
+    public enum Stage {
+        PARSE,
+        WATER,
+        NAMES,
+        FINAL_MAP
+    }
+
+    public enum Counter {
+        FRAME_PASSES,
+        GO_OUTER_RESTARTS,
+        GO_UPPER_RESTARTS
+    }
+
+    private static volatile boolean enabled = Boolean.getBoolean("radegast.metrics");
+
+    private static final LongAdder[] counts = adders(Stage.values().length);
+    private static final LongAdder[] nanos = adders(Stage.values().length);
+    private static final LongAdder[] allocatedBytes = adders(Stage.values().length);
+    private static final LongAdder[] counters = adders(Counter.values().length);
+
+    private PipelineMetrics() {
+    }
+
+    private static LongAdder[] adders(int size) {
+        LongAdder[] adders = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        PipelineMetrics.enabled = enabled;
+    }
+
+    // Starts measuring a step. stop should be called on the returned timer when the step is finished.
+    public static Timer start(Stage stage) {
+        StepEvent event = new StepEvent();
+        boolean recording = event.isEnabled();
+        if (!enabled && !recording) {
+            return Timer.DISABLED;
+        }
+        return new Timer(stage, recording ? event : null, enabled);
+    }
+
+    // Sets all totals to zero.
+    public static void reset() {
+        for (LongAdder[] adders : new LongAdder[][]{counts, nanos, allocatedBytes, counters}) {
+            for (LongAdder adder : adders) {
+                adder.reset();
+            }
+        }
+    }
+
+    public static Snapshot snapshot() {
+        return new Snapshot();
+    }
+
+    // Measurement of one step. It is used by one thread.
+    public static final class Timer {
+        private static final Timer DISABLED = new Timer(null, null, false);
+
+        private final Stage stage;
+        private final StepEvent event;
+        private final boolean collect;
+        private final long startNanos;
+        private final long startBytes;
+        private final long[] counterValues;
+
+        private Timer(Stage stage, StepEvent event, boolean collect) {
+            this.stage = stage;
+            this.event = event;
+            this.collect = collect;
+            counterValues = stage == null ? null : new long[Counter.values().length];
+            startBytes = stage == null ? 0 : Allocation.currentThreadBytes();
+            if (event != null) {
+                event.begin();
+            }
+            startNanos = stage == null ? 0 : System.nanoTime();
+        }
+
+        public void count(Counter counter, long amount) {
+            if (stage != null) {
+                counterValues[counter.ordinal()] += amount;
+            }
+        }
+
+        public void stop() {
+            if (stage == null) {
+                return;
+            }
+            long time = System.nanoTime() - startNanos;
+            long bytes = startBytes < 0 ? -1 : Allocation.currentThreadBytes() - startBytes;
+            if (collect) {
+                counts[stage.ordinal()].increment();
+                nanos[stage.ordinal()].add(time);
+                if (bytes >= 0) {
+                    allocatedBytes[stage.ordinal()].add(bytes);
+                }
+                for (int i = 0; i < counterValues.length; i++) {
+                    counters[i].add(counterValues[i]);
+                }
+            }
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.stage = stage.name();
+                    event.allocatedBytes = bytes;
+                    event.framePasses = counterValues[Counter.FRAME_PASSES.ordinal()];
+                    event.goOuterRestarts = counterValues[Counter.GO_OUTER_RESTARTS.ordinal()];
+                    event.goUpperRestarts = counterValues[Counter.GO_UPPER_RESTARTS.ordinal()];
+                    event.commit();
+                }
+            }
+        }
+    }
+
+    // Totals at the time the snapshot is taken.
+    public static final class Snapshot {
+        private final long[] stageCounts = new long[Stage.values().length];
+        private final long[] stageNanos = new long[Stage.values().length];
+        private final long[] stageBytes = new long[Stage.values().length];
+        private final long[] counterValues = new long[Counter.values().length];
+
+        private Snapshot() {
+            for (int i = 0; i < stageCounts.length; i++) {
+                stageCounts[i] = counts[i].sum();
+                stageNanos[i] = nanos[i].sum();
+                stageBytes[i] = allocatedBytes[i].sum();
+            }
+            for (int i = 0; i < counterValues.length; i++) {
+                counterValues[i] = counters[i].sum();
+            }
+        }
+
+        // Number of times the step is run.
+        public long getCount(Stage stage) {
+            return stageCounts[stage.ordinal()];
+        }
+
+        public long getNanos(Stage stage) {
+            return stageNanos[stage.ordinal()];
+        }
+
+        public long getAllocatedBytes(Stage stage) {
+            return stageBytes[stage.ordinal()];
+        }
+
+        public long getCounter(Counter counter) {
+            return counterValues[counter.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (Stage stage : Stage.values()) {
+                builder.append(String.format(Locale.ROOT, "%-10s runs: %d, time: %.3f ms, allocated: %d bytes%n",
+                        stage, getCount(stage), getNanos(stage) / 1e6, getAllocatedBytes(stage)));
+            }
+            for (Counter counter : Counter.values()) {
+                builder.append(String.format(Locale.ROOT, "%-18s %d%n", counter + ":", getCounter(counter)));
+            }
+            return builder.toString();
+        }
+    }
+
+    // The management bean is loaded only when a step is measured, since loading it takes time.
+    private static final class Allocation {
+        private static final com.sun.management.ThreadMXBean BEAN = bean();
+
+        private static com.sun.management.ThreadMXBean bean() {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+                if (threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled()) {
+                    return threadBean;
+                }
+            }
+            return null;
+        }
+
+        // Returns -1 if the JVM can't count allocated bytes.
+        static long currentThreadBytes() {
+            return BEAN == null ? -1 : BEAN.getCurrentThreadAllocatedBytes();
+        }
+    }
+
+    @Name("radegast.PipelineStep")
+    @Label("Pipeline Step")
+    @Category("Radegast")
+    @Description("A step of the pipeline: parsing, water levels, lake names or the final map")
+    static final class StepEvent extends jdk.jfr.Event {
+        @Label("Stage")
+        String stage;
+
+        @Label("Allocated Bytes")
+        @Description("Bytes allocated by the thread during the step, -1 if it is not known")
+        @DataAmount
+        long allocatedBytes;
+
+        @Label("Frame Passes")
+        long framePasses;
+
+        @Label("Go Outer Restarts")
+        long goOuterRestarts;
+
+        @Label("Go Upper Restarts")
+        long goUpperRestarts;
+    }
+}
@@ -0,0 +1,32 @@
+// This class is a grid which can't be changed. It is used for results which are shared between threads, like the
+// results in SolveCache. set throws an UnsupportedOperationException.
+public class ReadOnlyGrid extends Grid {
+    private final Grid values;
+
+    // Given grid must not be changed after this, so Grid.readOnlyCopy should be used instead of this constructor.
+    ReadOnlyGrid(Grid values) {
+        super(values.getRowNumber(), values.getColumnNumber());
+        this.values = values;
+    }
+
+    @Override
+    public int get(int index) {
+        return values.get(index);
+    }
+
+    @Override
+    public void set(int index, int value) {
+        throw new UnsupportedOperationException("Grid is read-only");
+    }
+
+    // The blank grid can be changed.
+    @Override
+    public Grid blank() {
+        return values.blank();
+    }
+
+    @Override
+    public Grid readOnlyCopy() {
+        return this;
+    }
+}
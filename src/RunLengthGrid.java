@@ -0,0 +1,213 @@
+// This class is a grid which keeps each row as runs: a run is a group of squares next to each other in the same row
+// with the same number, and it is kept as its first column and its number. A flat plateau row needs one run whatever
+// its length, so the memory depends on how many times the numbers change in the rows, not on rows x columns. A square
+// is found with a binary search over the runs of its row. Setting a square splits its run, or grows the run next to
+// it if the number is the same, so filling a row from left to right only changes the last runs.
+// WaterCalculator and NameCalculator work on runs instead of squares for these grids (see RunWaterSolver), so plateaus
+// which can't hold water are handled as a few runs.
+import java.util.Arrays;
+
+public class RunLengthGrid extends Grid {
+    // starts[row][i] is the first column of run i of the row and values[row][i] is its number. The run ends before the
+    // first column of the next run, or at the end of the row.
+    private final int[][] starts;
+    private final int[][] values;
+    private final int[] runCounts;
+
+    // Creates a grid filled with zeros, which is one run for each row.
+    public RunLengthGrid(int rowNumber, int columnNumber) {
+        super(rowNumber, columnNumber);
+        starts = new int[rowNumber][];
+        values = new int[rowNumber][];
+        runCounts = new int[rowNumber];
+        for (int row = 0; row < rowNumber; row++) {
+            starts[row] = new int[2];
+            values[row] = new int[2];
+            runCounts[row] = 1;
+        }
+    }
+
+    // Copies any grid into a new run-length grid.
+    public static RunLengthGrid of(Grid source) {
+        RunLengthGrid grid = new RunLengthGrid(source.getRowNumber(), source.getColumnNumber());
+        grid.copyFrom(source);
+        return grid;
+    }
+
+    @Override
+    public int get(int index) {
+        int row = index / columnNumber;
+        return values[row][findRun(row, index - row * columnNumber)];
+    }
+
+    @Override
+    public void set(int index, int value) {
+        int row = index / columnNumber;
+        int column = index - row * columnNumber;
+        int run = findRun(row, column);
+        int[] rowValues = values[row];
+        if (rowValues[run] == value) {
+            return;
+        }
+        int[] rowStarts = starts[row];
+        int first = rowStarts[run];
+        int last = runEnd(row, run) - 1;
+        boolean joinsPrevious = column == first && run > 0 && rowValues[run - 1] == value;
+        boolean joinsNext = column == last && run + 1 < runCounts[row] && rowValues[run + 1] == value;
+        if (first == last) {
+            // The run has only this square.
+            rowValues[run] = value;
+            if (joinsNext) {
+                remove(row, run + 1);
+            }
+            if (joinsPrevious) {
+                remove(row, run);
+            }
+        } else if (column == first) {
+            if (joinsPrevious) {
+                rowStarts[run]++;
+            } else {
+                insert(row, run, column, value);
+                starts[row][run + 1] = column + 1;
+            }
+        } else if (column == last) {
+            if (joinsNext) {
+                rowStarts[run + 1]--;
+            } else {
+                insert(row, run + 1, column, value);
+            }
+        } else {
+            // The run is split into three runs.
+            int old = rowValues[run];
+            insert(row, run + 1, column, value);
+            insert(row, run + 2, column + 1, old);
+        }
+    }
+
+    // Index of the run which contains given column. The last run is checked first, since rows are often filled from
+    // left to right.
+    int findRun(int row, int column) {
+        int[] rowStarts = starts[row];
+        int low = 0;
+        int high = runCounts[row] - 1;
+        if (rowStarts[high] <= column) {
+            return high;
+        }
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (rowStarts[middle] <= column) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    int runCount(int row) {
+        return runCounts[row];
+    }
+
+    int runStart(int row, int run) {
+        return starts[row][run];
+    }
+
+    // Column after the last square of the run.
+    int runEnd(int row, int run) {
+        return run + 1 < runCounts[row] ? starts[row][run + 1] : columnNumber;
+    }
+
+    int runValue(int row, int run) {
+        return values[row][run];
+    }
+
+    // Replaces a row with given runs. Runs next to each other with the same number are joined.
+    void setRow(int row, int[] runStarts, int[] runValues, int count) {
+        int[] rowStarts = new int[Math.max(count, 2)];
+        int[] rowValues = new int[rowStarts.length];
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            if (length > 0 && rowValues[length - 1] == runValues[i]) {
+                continue;
+            }
+            rowStarts[length] = runStarts[i];
+            rowValues[length++] = runValues[i];
+        }
+        starts[row] = rowStarts;
+        values[row] = rowValues;
+        runCounts[row] = length;
+    }
+
+    // Total number of runs, which is a measure of the memory of the grid.
+    public long runCount() {
+        long count = 0;
+        for (int runs : runCounts) {
+            count += runs;
+        }
+        return count;
+    }
+
+    private void insert(int row, int run, int start, int value) {
+        int count = runCounts[row];
+        if (count == starts[row].length) {
+            starts[row] = Arrays.copyOf(starts[row], count * 2);
+            values[row] = Arrays.copyOf(values[row], count * 2);
+        }
+        System.arraycopy(starts[row], run, starts[row], run + 1, count - run);
+        System.arraycopy(values[row], run, values[row], run + 1, count - run);
+        starts[row][run] = start;
+        values[row][run] = value;
+        runCounts[row]++;
+    }
+
+    private void remove(int row, int run) {
+        int count = --runCounts[row];
+        System.arraycopy(starts[row], run + 1, starts[row], run, count - run);
+        System.arraycopy(values[row], run + 1, values[row], run, count - run);
+    }
+
+    @Override
+    public void copyFrom(Grid source) {
+        if (source.getRowNumber() != rowNumber || source.getColumnNumber() != columnNumber) {
+            throw new IllegalArgumentException("Grids have different sizes");
+        }
+        if (source instanceof RunLengthGrid) {
+            RunLengthGrid other = (RunLengthGrid) source;
+            for (int row = 0; row < rowNumber; row++) {
+                starts[row] = other.starts[row].clone();
+                values[row] = other.values[row].clone();
+                runCounts[row] = other.runCounts[row];
+            }
+            return;
+        }
+        // Runs of each row are found first, so no run is split while copying.
+        int[] runStarts = new int[16];
+        int[] runValues = new int[16];
+        for (int row = 0; row < rowNumber; row++) {
+            int count = 0;
+            for (int column = 0; column < columnNumber; column++) {
+                int value = source.get(row, column);
+                if (count > 0 && runValues[count - 1] == value) {
+                    continue;
+                }
+                if (count == runStarts.length) {
+                    runStarts = Arrays.copyOf(runStarts, count * 2);
+                    runValues = Arrays.copyOf(runValues, count * 2);
+                }
+                runStarts[count] = column;
+                runValues[count++] = value;
+            }
+            setRow(row, runStarts, runValues, count);
+        }
+    }
+
+    @Override
+    public Grid readOnlyCopy() {
+        return new ReadOnlyGrid(of(this));
+    }
+
+    @Override
+    public Grid blank() {
+        return new RunLengthGrid(rowNumber, columnNumber);
+    }
+}
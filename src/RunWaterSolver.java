@@ -0,0 +1,97 @@
+// This class calculates the same water heights as the priority flood of WaterCalculator for a map kept in a
+// RunLengthGrid, but it visits runs instead of squares. The squares of a run have the same wall height and they are
+// next to each other, so water over one of them can flow to all of them: every square of a run gets the same water
+// level. So the flood is the same as the priority flood with runs in place of squares:
+// 1: Runs of the first and the last row, and the first and the last run of every other row, touch the edge of the map.
+// Their water level is their wall height, and they are put into the heap.
+// 2: Take the run with the lowest water level from the heap. For each run which is not visited yet and touches it (the
+// runs before and after it in the same row, and the runs in the rows above and below which share a column with it or
+// touch it diagonally), the water level is the maximum of its wall and the current level. Put it into the heap.
+// 3: Water heights are the levels minus the walls, and they are written into a RunLengthGrid run by run.
+// A plateau is one run in each row, so time and memory depend on the number of runs instead of rows x columns.
+import java.util.Arrays;
+
+public class RunWaterSolver {
+    private final RunLengthGrid heights;
+    private final int rows;
+    // Runs of row r are numbered from rowOffsets[r] to rowOffsets[r + 1] - 1.
+    private final int[] rowOffsets;
+
+    public RunWaterSolver(RunLengthGrid heights) {
+        this.heights = heights;
+        rows = heights.getRowNumber();
+        rowOffsets = new int[rows + 1];
+        for (int row = 0; row < rows; row++) {
+            rowOffsets[row + 1] = rowOffsets[row] + heights.runCount(row);
+        }
+    }
+
+    // Returns the water heights (not levels) of all squares. The map must have more than 2 rows and columns.
+    public RunLengthGrid solve() {
+        int runCount = rowOffsets[rows];
+        int[] levels = new int[runCount];
+        boolean[] visited = new boolean[runCount];
+        CellHeap heap = new CellHeap(2 * (rows + heights.runCount(0)));
+        // Stage 1
+        for (int row = 0; row < rows; row++) {
+            int last = heights.runCount(row) - 1;
+            int step = row == 0 || row == rows - 1 ? 1 : Math.max(last, 1);
+            for (int run = 0; run <= last; run += step) {
+                int id = rowOffsets[row] + run;
+                visited[id] = true;
+                levels[id] = heights.runValue(row, run);
+                heap.push(levels[id], id);
+            }
+        }
+        // Stage 2
+        while (!heap.isEmpty()) {
+            int level = heap.peekKey();
+            int id = heap.pop();
+            int row = rowOf(id);
+            int run = id - rowOffsets[row];
+            int first = heights.runStart(row, run);
+            int end = heights.runEnd(row, run);
+            for (int i = Math.max(row - 1, 0); i <= Math.min(row + 1, rows - 1); i++) {
+                // Runs of row i from the one under column first - 1 to the one under column end. In the same row
+                // these are the runs before and after this run.
+                int from = heights.findRun(i, Math.max(first - 1, 0));
+                int to = heights.findRun(i, Math.min(end, heights.getColumnNumber() - 1));
+                for (int neighbour = from; neighbour <= to; neighbour++) {
+                    int neighbourId = rowOffsets[i] + neighbour;
+                    if (visited[neighbourId]) {
+                        continue;
+                    }
+                    visited[neighbourId] = true;
+                    levels[neighbourId] = Math.max(heights.runValue(i, neighbour), level);
+                    heap.push(levels[neighbourId], neighbourId);
+                }
+            }
+        }
+        // Stage 3
+        RunLengthGrid water = new RunLengthGrid(rows, heights.getColumnNumber());
+        int[] starts = new int[16];
+        int[] depths = new int[16];
+        for (int row = 0; row < rows; row++) {
+            int count = heights.runCount(row);
+            if (count > starts.length) {
+                starts = Arrays.copyOf(starts, count);
+                depths = Arrays.copyOf(depths, count);
+            }
+            for (int run = 0; run < count; run++) {
+                starts[run] = heights.runStart(row, run);
+                depths[run] = levels[rowOffsets[row] + run] - heights.runValue(row, run);
+            }
+            water.setRow(row, starts, depths, count);
+        }
+        return water;
+    }
+
+    private int rowOf(int id) {
+        int row = Arrays.binarySearch(rowOffsets, id);
+        if (row < 0) {
+            return -row - 2;
+        }
+        // Rows have at least one run, so only one row starts at this number.
+        return row;
+    }
+}
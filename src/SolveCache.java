@@ -0,0 +1,190 @@
+// This class keeps the results of solved maps, so a map which is solved again doesn't go through WaterCalculator and
+// NameCalculator one more time. Maps are found by a 64 bit hash of their heights, and heights are compared when the
+// hashes are equal, so two different maps never share a result.
+// The cache holds at most maxBytes bytes of grids. When it is full, the least recently used results are removed.
+// Results are read-only copies (see GameMap.readOnlyCopy), so they can be given to many threads without copying
+// them again. All methods can be called from many threads. Two threads which miss the same map at the same time both
+// solve it, and the first result is kept.
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class SolveCache {
+    // Bytes of an entry besides its grids (key, result, map objects and links of the LinkedHashMap).
+    private static final long ENTRY_OVERHEAD_BYTES = 256;
+
+    // Solved map. All maps are read-only.
+    public static final class Result {
+        private final GameMap heightsMap;
+        private final GameMap waterMap;
+        private final GameMap namesMap;
+        private final GameMap finalMap;
+        private final long bytes;
+
+        private Result(GameMap heightsMap, GameMap waterMap, GameMap namesMap, GameMap finalMap) {
+            this.heightsMap = heightsMap;
+            this.waterMap = waterMap;
+            this.namesMap = namesMap;
+            this.finalMap = finalMap;
+            // Heights, water levels, lake numbers and lakes of the final map. Walls of the final map are the heights.
+            bytes = 4L * Integer.BYTES * heightsMap.getHeightGrid().size() + ENTRY_OVERHEAD_BYTES;
+        }
+
+        public GameMap getHeightsMap() {
+            return heightsMap;
+        }
+
+        // Water levels like WaterCalculator.calculateWaterLevels.
+        public GameMap getWaterMap() {
+            return waterMap;
+        }
+
+        // Lake numbers like NameCalculator.calculateNames.
+        public GameMap getNamesMap() {
+            return namesMap;
+        }
+
+        // Final map like GameMap.finalMap.
+        public GameMap getFinalMap() {
+            return finalMap;
+        }
+
+        public double getScore() {
+            return finalMap.getScore();
+        }
+    }
+
+    private static final class Key {
+        private final long hash;
+        private final Grid heights;
+
+        Key(long hash, Grid heights) {
+            this.hash = hash;
+            this.heights = heights;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hash ^ (hash >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            if (hash != key.hash || heights.getRowNumber() != key.heights.getRowNumber()
+                    || heights.getColumnNumber() != key.heights.getColumnNumber()) {
+                return false;
+            }
+            for (int i = 0; i < heights.size(); i++) {
+                if (heights.get(i) != key.heights.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final long maxBytes;
+    private final WaterCalculator.Engine engine;
+    // Access order, so the first entry is the least recently used one.
+    private final LinkedHashMap<Key, Result> results = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public SolveCache(long maxBytes) {
+        this(maxBytes, WaterCalculator.Engine.PRIORITY_FLOOD);
+    }
+
+    public SolveCache(long maxBytes, WaterCalculator.Engine engine) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Size of the cache can't be negative");
+        }
+        this.maxBytes = maxBytes;
+        this.engine = engine;
+    }
+
+    // Hash of the size and the heights of a grid. Every height is mixed with a multiplication, like FNV-1a does with
+    // bytes, and the end result is mixed once more with the finalizer of SplitMix64.
+    public static long hash(Grid heights) {
+        long hash = 0xCBF29CE484222325L ^ ((long) heights.getRowNumber() << 32 | heights.getColumnNumber());
+        for (int i = 0; i < heights.size(); i++) {
+            hash = (hash ^ heights.get(i)) * 0x100000001B3L;
+        }
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        return hash ^ (hash >>> 31);
+    }
+
+    // Returns the result of the map from the cache, or solves the map and puts its result into the cache. Heights of
+    // the map are copied, so the map can be changed later.
+    public Result solve(GameMap map) {
+        Grid heights = map.getHeightGrid();
+        Key key = new Key(hash(heights), heights);
+        synchronized (this) {
+            Result result = results.get(key);
+            if (result != null) {
+                hits++;
+                return result;
+            }
+            misses++;
+        }
+
+        GameMap heightsMap = map.readOnlyCopy();
+        GameMap waterMap = new WaterCalculator(heightsMap, engine).calculateWaterLevels().readOnlyCopy();
+        GameMap namesMap = new NameCalculator(waterMap).calculateNames().readOnlyCopy();
+        GameMap finalMap = GameMap.finalMap(waterMap, namesMap, heightsMap).readOnlyCopy();
+        Result result = new Result(heightsMap, waterMap, namesMap, finalMap);
+        if (result.bytes > maxBytes) {
+            return result;
+        }
+
+        // The key keeps the read-only heights, since the heights of the given map may change.
+        key = new Key(key.hash, heightsMap.getHeightGrid());
+        synchronized (this) {
+            Result previous = results.putIfAbsent(key, result);
+            if (previous != null) {
+                return previous;
+            }
+            bytes += result.bytes;
+            Iterator<Map.Entry<Key, Result>> iterator = results.entrySet().iterator();
+            while (bytes > maxBytes) {
+                bytes -= iterator.next().getValue().bytes;
+                iterator.remove();
+                evictions++;
+            }
+        }
+        return result;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    // Bytes of the results in the cache.
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    // Number of results in the cache.
+    public synchronized int size() {
+        return results.size();
+    }
+
+    public synchronized void clear() {
+        results.clear();
+        bytes = 0;
+    }
+}
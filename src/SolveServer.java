@@ -0,0 +1,405 @@
+// This class is a small HTTP server which solves maps for other programs. Usage: java SolveServer [port] [threads]
+// A map is sent with "POST /solve" and a JSON body like {"heights": [[3, 3, 3], [3, 0, 3], [3, 3, 3]],
+// "stones": ["b1", [1, 1]]}. A stone is a coordinate like in the Modifications section, or a [row, column] pair for
+// maps which are too big for coordinates. Stones are added before solving. The answer has the water levels, the lake
+// names and the score, which are calculated by WaterCalculator, NameCalculator and GameMap.finalMap like Main. It also
+// has the area, volume, maximum depth, rectangle and spill elevation of each lake, taken from the LakeIndex.
+// Requests are not solved by the threads of the HTTP server. They are put into a queue, and a batching thread takes
+// them from the queue in small batches. Small maps of a batch are solved together by one solver thread, so a lot of
+// small requests don't create a task each. Requests are counted by their squares from the moment they are read
+// until they are answered, in the queue and in the solver threads. If too many squares are waiting, the request is
+// answered with 503 and a Retry-After header, so clients slow down instead of filling the memory of the server.
+// Results are kept in a SolveCache, and its counters are shown by "GET /stats".
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+public class SolveServer {
+    // Most requests in a batch.
+    private static final int BATCH_SIZE = 64;
+    // After the first request of a batch, the batching thread waits this long for more requests.
+    private static final long BATCH_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // Maps of a batch are given to a solver thread together until they have this many squares.
+    private static final int SQUARES_PER_TASK = 1 << 16;
+    // Biggest map that is accepted, in squares.
+    private static final int MAX_SQUARES = 1 << 22;
+    // Most requests which are read but not answered yet.
+    private static final int MAX_JOBS = 256;
+    // Most squares of requests which are read but not answered yet. Each request counts at least
+    // SQUARES_IN_FLIGHT / MAX_JOBS squares, so there are at most MAX_JOBS small requests, or 4 of the biggest maps.
+    private static final int SQUARES_IN_FLIGHT = 4 * MAX_SQUARES;
+    // Biggest request body in bytes. A height of 10 digits needs 11 bytes.
+    private static final long MAX_BODY_BYTES = 12L * MAX_SQUARES;
+    // Results of maps which are solved before are kept in a cache of this size.
+    private static final long CACHE_BYTES = 256L << 20;
+
+    // A request waiting in the queue. The exchange is answered by the solver thread.
+    private static final class Job {
+        final HttpExchange exchange;
+        final int[][] heights;
+        final int[] stones;
+
+        Job(HttpExchange exchange, int[][] heights, int[] stones) {
+            this.exchange = exchange;
+            this.heights = heights;
+            this.stones = stones;
+        }
+
+        int size() {
+            return heights.length * heights[0].length;
+        }
+
+        // Squares which are taken from the limit of SQUARES_IN_FLIGHT while the job is not answered.
+        int permits() {
+            return Math.max(size(), SQUARES_IN_FLIGHT / MAX_JOBS);
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService httpThreads;
+    private final ExecutorService solverThreads;
+    // The queue can't be full, every job in it holds permits of squaresInFlight.
+    private final BlockingQueue<Job> queue = new ArrayBlockingQueue<>(MAX_JOBS);
+    private final Semaphore squaresInFlight = new Semaphore(SQUARES_IN_FLIGHT);
+    private final SolveCache cache = new SolveCache(CACHE_BYTES);
+    private final Thread batcher;
+    private volatile boolean running = true;
+
+    // Platform threads are used, virtual threads are not available before Java 21. HTTP threads only read and check
+    // requests, so there are few of them. Solving is done by a fixed number of solver threads.
+    public SolveServer(int port, int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be at least 1");
+        }
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        httpThreads = Executors.newFixedThreadPool(Math.max(2, threads / 2));
+        solverThreads = Executors.newFixedThreadPool(threads);
+        server.setExecutor(httpThreads);
+        server.createContext("/solve", this::handle);
+        server.createContext("/stats", this::sendStats);
+        batcher = new Thread(this::batch, "solve-batcher");
+        batcher.setDaemon(true);
+    }
+
+    public void start() {
+        batcher.start();
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // Stops taking requests. Requests in the queue are answered with 503.
+    public void stop() {
+        running = false;
+        server.stop(0);
+        batcher.interrupt();
+        try {
+            batcher.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        List<Job> left = new ArrayList<>();
+        queue.drainTo(left);
+        for (Job job : left) {
+            answerError(job, 503, "Server is stopping");
+        }
+        solverThreads.shutdown();
+        httpThreads.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            exchange.getResponseHeaders().set("Allow", "POST");
+            sendError(exchange, 405, "Only POST is supported");
+            return;
+        }
+        Job job;
+        try {
+            String body = readBody(exchange);
+            if (body == null) {
+                sendError(exchange, 413, "Request is too big");
+                return;
+            }
+            job = readJob(exchange, body);
+        } catch (IllegalArgumentException ex) {
+            sendError(exchange, 400, ex.getMessage());
+            return;
+        } catch (IOException ex) {
+            exchange.close();
+            return;
+        }
+        if (!running || !squaresInFlight.tryAcquire(job.permits())) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendError(exchange, 503, "Too many requests");
+            return;
+        }
+        if (!queue.offer(job)) {
+            answerError(job, 503, "Too many requests");
+        }
+    }
+
+    // Returns null if the body is bigger than MAX_BODY_BYTES.
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream stream = exchange.getRequestBody()) {
+            byte[] bytes = stream.readNBytes((int) Math.min(Integer.MAX_VALUE - 8, MAX_BODY_BYTES + 1));
+            if (bytes.length > MAX_BODY_BYTES) {
+                return null;
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static Job readJob(HttpExchange exchange, String body) {
+        Object document = Json.parse(body);
+        if (!(document instanceof Map)) {
+            throw new IllegalArgumentException("Body must be a JSON object");
+        }
+        Map<?, ?> request = (Map<?, ?>) document;
+        if (!(request.get("heights") instanceof List) || ((List<?>) request.get("heights")).isEmpty()) {
+            throw new IllegalArgumentException("heights must be a non-empty array of rows");
+        }
+        List<?> rows = (List<?>) request.get("heights");
+        int[][] heights = new int[rows.size()][];
+        for (int row = 0; row < rows.size(); row++) {
+            if (!(rows.get(row) instanceof List) || ((List<?>) rows.get(row)).isEmpty()) {
+                throw new IllegalArgumentException("Row " + row + " must be a non-empty array");
+            }
+            List<?> values = (List<?>) rows.get(row);
+            if (row > 0 && values.size() != heights[0].length) {
+                throw new IllegalArgumentException("All rows must have the same length");
+            }
+            if ((long) rows.size() * values.size() > MAX_SQUARES) {
+                throw new IllegalArgumentException("Map is too big");
+            }
+            heights[row] = new int[values.size()];
+            for (int column = 0; column < values.size(); column++) {
+                heights[row][column] = readInt(values.get(column), "Wrong height at row " + row);
+                if (heights[row][column] < 0) {
+                    throw new IllegalArgumentException("Wrong height at row " + row);
+                }
+            }
+        }
+        Object stoneList = request.get("stones");
+        if (stoneList != null && !(stoneList instanceof List)) {
+            throw new IllegalArgumentException("stones must be an array");
+        }
+        List<?> stoneValues = stoneList == null ? List.of() : (List<?>) stoneList;
+        int[] stones = new int[stoneValues.size()];
+        for (int i = 0; i < stones.length; i++) {
+            stones[i] = readStone(stoneValues.get(i), heights.length, heights[0].length);
+        }
+        return new Job(exchange, heights, stones);
+    }
+
+    private static int readStone(Object stone, int rowNumber, int columnNumber) {
+        if (stone instanceof String) {
+            int cell = GameMap.parseCoordinate((String) stone, rowNumber, columnNumber);
+            if (cell == -1) {
+                throw new IllegalArgumentException("Wrong stone " + stone);
+            }
+            return cell;
+        }
+        if (stone instanceof List && ((List<?>) stone).size() == 2) {
+            int row = readInt(((List<?>) stone).get(0), "Wrong stone " + stone);
+            int column = readInt(((List<?>) stone).get(1), "Wrong stone " + stone);
+            if (row >= 0 && row < rowNumber && column >= 0 && column < columnNumber) {
+                return row * columnNumber + column;
+            }
+        }
+        throw new IllegalArgumentException("Wrong stone " + stone);
+    }
+
+    private static int readInt(Object value, String message) {
+        if (!(value instanceof Long) || (Long) value != ((Long) value).intValue()) {
+            throw new IllegalArgumentException(message);
+        }
+        return ((Long) value).intValue();
+    }
+
+    // Takes requests from the queue in batches and gives them to the solver threads.
+    private void batch() {
+        List<Job> batch = new ArrayList<>(BATCH_SIZE);
+        while (running) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + BATCH_WINDOW_NANOS;
+                while (batch.size() < BATCH_SIZE) {
+                    Job job = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (job == null) {
+                        break;
+                    }
+                    batch.add(job);
+                    queue.drainTo(batch, BATCH_SIZE - batch.size());
+                }
+            } catch (InterruptedException ex) {
+                for (Job job : batch) {
+                    answerError(job, 503, "Server is stopping");
+                }
+                return;
+            }
+            // Small maps are grouped until they reach SQUARES_PER_TASK squares. A big map gets a task of its own.
+            List<Job> task = new ArrayList<>();
+            int squares = 0;
+            for (Job job : batch) {
+                if (!task.isEmpty() && squares + job.size() > SQUARES_PER_TASK) {
+                    submit(task);
+                    task = new ArrayList<>();
+                    squares = 0;
+                }
+                task.add(job);
+                squares += job.size();
+            }
+            submit(task);
+            batch.clear();
+        }
+    }
+
+    private void submit(List<Job> jobs) {
+        solverThreads.execute(() -> {
+            for (Job job : jobs) {
+                solve(job);
+            }
+        });
+    }
+
+    private void solve(Job job) {
+        String answer;
+        try {
+            answer = solve(job.heights, job.stones);
+        } catch (RuntimeException | OutOfMemoryError ex) {
+            answerError(job, 500, ex.toString());
+            return;
+        }
+        send(job.exchange, 200, answer);
+        squaresInFlight.release(job.permits());
+    }
+
+    // Answers a job which holds permits of squaresInFlight with an error and gives the permits back.
+    private void answerError(Job job, int status, String message) {
+        if (status == 503) {
+            job.exchange.getResponseHeaders().set("Retry-After", "1");
+        }
+        sendError(job.exchange, status, message);
+        squaresInFlight.release(job.permits());
+    }
+
+    // Adds the stones and solves the map like Main. A map which is solved before is taken from the cache. Returns the
+    // answer as JSON.
+    String solve(int[][] heights, int[] stones) {
+        GameMap map = new GameMap(heights);
+        Grid walls = map.getHeightGrid();
+        for (int stone : stones) {
+            walls.set(stone, walls.get(stone) + 1);
+        }
+        SolveCache.Result result = cache.solve(map);
+        GameMap waterMap = result.getWaterMap();
+        GameMap finalMap = result.getFinalMap();
+        Grid water = waterMap.getHeightGrid();
+        // finalMap has no lakes for maps which are too small to store water.
+        Grid lakes = finalMap.getLakeGrid();
+
+        StringBuilder answer = new StringBuilder(walls.size() * 6 + 64);
+        answer.append("{\"rows\":").append(walls.getRowNumber())
+                .append(",\"columns\":").append(walls.getColumnNumber())
+                .append(",\"score\":").append(String.format(Locale.ROOT, "%.2f", finalMap.getScore()))
+                .append(",\"water\":[");
+        for (int row = 0; row < walls.getRowNumber(); row++) {
+            answer.append(row == 0 ? "[" : ",[");
+            for (int column = 0; column < walls.getColumnNumber(); column++) {
+                if (column > 0) {
+                    answer.append(',');
+                }
+                // Only squares of a lake store water.
+                answer.append(lakes == null || lakes.get(row, column) == 0 ? 0 : water.get(row, column));
+            }
+            answer.append(']');
+        }
+        answer.append("],\"lakes\":[");
+        for (int row = 0; row < walls.getRowNumber(); row++) {
+            answer.append(row == 0 ? "[" : ",[");
+            for (int column = 0; column < walls.getColumnNumber(); column++) {
+                if (column > 0) {
+                    answer.append(',');
+                }
+                int lake = lakes == null ? 0 : lakes.get(row, column);
+                Json.quote(NameCreator.nameOf(lake), answer);
+            }
+            answer.append(']');
+        }
+        answer.append("],\"lakeStats\":[");
+        LakeIndex index = finalMap.getLakeIndex();
+        for (int lake = 1; index != null && lake <= index.getLargestLake(); lake++) {
+            if (index.getVolume(lake) == 0) {
+                continue;
+            }
+            LakeIndex.Lake stats = index.getLake(lake);
+            answer.append(answer.charAt(answer.length() - 1) == '[' ? "{\"name\":" : ",{\"name\":");
+            Json.quote(stats.name, answer);
+            answer.append(",\"area\":").append(stats.area)
+                    .append(",\"volume\":").append(stats.volume)
+                    .append(",\"maxDepth\":").append(stats.maxDepth)
+                    .append(",\"box\":[").append(stats.minRow).append(',').append(stats.minColumn).append(',')
+                    .append(stats.maxRow).append(',').append(stats.maxColumn).append(']')
+                    .append(",\"spillElevation\":").append(stats.spillElevation).append('}');
+        }
+        return answer.append("]}").toString();
+    }
+
+    // Answers with the size of the queue, the squares in flight and the counters of the cache.
+    private void sendStats(HttpExchange exchange) {
+        send(exchange, 200, "{\"queued\":" + queue.size()
+                + ",\"squaresInFlight\":" + (SQUARES_IN_FLIGHT - squaresInFlight.availablePermits())
+                + ",\"cacheHits\":" + cache.getHits()
+                + ",\"cacheMisses\":" + cache.getMisses() + ",\"cacheEvictions\":" + cache.getEvictions()
+                + ",\"cacheEntries\":" + cache.size() + ",\"cacheBytes\":" + cache.getBytes() + "}");
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) {
+        send(exchange, status, "{\"error\":" + Json.quote(message == null ? "" : message) + "}");
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream stream = exchange.getResponseBody()) {
+                stream.write(bytes);
+            }
+        } catch (IOException ex) {
+            // The client has gone, there is nobody to answer.
+        } finally {
+            exchange.close();
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+            int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            SolveServer server = new SolveServer(port, threads);
+            server.start();
+            System.out.println("Solving maps on http://localhost:" + server.getPort() + "/solve");
+        } catch (IllegalArgumentException | IOException ex) {
+            System.out.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,349 @@
+// This class saves a solved map with everything calculated from it (water depths, lake numbers and lake statistics)
+// into one file, so a later run can start from it instead of solving the map again. Usage:
+// java SolveSnapshot save <input file> <snapshot file>
+// java SolveSnapshot check <snapshot file>
+// All numbers are little-endian. The file starts with a header:
+// SNAPSHOT_MAGIC ("TRWS"), VERSION, column number, row number, largest lake number, number of sections (4 byte ints),
+// score (8 byte double), then a table with a line for each section: section id and CRC32C of its bytes (4 byte ints),
+// offset and length of the section in the file (8 byte longs). The header ends with the CRC32C of all bytes before it.
+// Sections are heights, modified squares, water depths and lake numbers as 4 byte ints, and the statistics of lakes 1
+// to the largest lake number (see LakeIndex.putLake). Each section starts at a multiple of 8 bytes.
+// open reads only the header. A section is memory-mapped and its checksum is checked the first time it is needed, so
+// loading a big snapshot takes as long as reading the parts which are used. Grids are read from the mapping directly
+// (see BufferGrid). The file is opened and mapped read-only like GameMap.fromBinary, so snapshots can be loaded from
+// read-only disks, and heights are copied when the first stone is added, so adding stones doesn't change the file. A
+// file with another version or a wrong checksum is not loaded, and an IOException is thrown.
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+public class SolveSnapshot implements AutoCloseable {
+    static final int SNAPSHOT_MAGIC = 0x54525753;
+    // Should be increased if the layout of the file changes.
+    static final int VERSION = 1;
+    private static final int HEIGHTS = 0;
+    private static final int MODIFICATIONS = 1;
+    private static final int WATER = 2;
+    private static final int LAKES = 3;
+    private static final int LAKE_STATS = 4;
+    private static final int SECTION_COUNT = 5;
+    private static final int TABLE_OFFSET = 6 * Integer.BYTES + Double.BYTES;
+    private static final int SECTION_BYTES = 2 * Integer.BYTES + 2 * Long.BYTES;
+    private static final int HEADER_BYTES = TABLE_OFFSET + SECTION_COUNT * SECTION_BYTES + Integer.BYTES;
+
+    private final String path;
+    private final FileChannel channel;
+    private final int rows;
+    private final int columns;
+    private final int largestLake;
+    private final double score;
+    private final int[] checksums = new int[SECTION_COUNT];
+    private final long[] offsets = new long[SECTION_COUNT];
+    private final long[] lengths = new long[SECTION_COUNT];
+    // Sections and maps which are already loaded.
+    private final ByteBuffer[] sections = new ByteBuffer[SECTION_COUNT];
+    private GameMap heightMap;
+    private GameMap waterMap;
+    private GameMap namesMap;
+    private GameMap finalMap;
+
+    private SolveSnapshot(String path, FileChannel channel) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // Reads until the header is full or the file ends.
+        }
+        if (header.position() < 2 * Integer.BYTES || header.getInt(0) != SNAPSHOT_MAGIC) {
+            throw new IOException("Not a snapshot file: " + path);
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("Unsupported snapshot version " + header.getInt(4) + ": " + path);
+        }
+        if (header.hasRemaining() || header.getInt(20) != SECTION_COUNT) {
+            throw new IOException("Broken snapshot header: " + path);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(header.array(), 0, HEADER_BYTES - Integer.BYTES);
+        if ((int) crc.getValue() != header.getInt(HEADER_BYTES - Integer.BYTES)) {
+            throw new IOException("Wrong checksum of snapshot header: " + path);
+        }
+        columns = header.getInt(8);
+        rows = header.getInt(12);
+        largestLake = header.getInt(16);
+        score = header.getDouble(24);
+        long cells = (long) rows * columns;
+        long[] expected = {cells * Integer.BYTES, -1, cells * Integer.BYTES, cells * Integer.BYTES,
+                (long) largestLake * LakeIndex.LAKE_BYTES};
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            int line = TABLE_OFFSET + i * SECTION_BYTES;
+            checksums[i] = header.getInt(line + 4);
+            offsets[i] = header.getLong(line + 8);
+            lengths[i] = header.getLong(line + 16);
+            boolean sizeFits = expected[i] == -1 ? lengths[i] % Integer.BYTES == 0 : lengths[i] == expected[i];
+            if (header.getInt(line) != i || !sizeFits || offsets[i] < HEADER_BYTES || lengths[i] > Integer.MAX_VALUE
+                    || offsets[i] + lengths[i] > size) {
+                throw new IOException("Broken snapshot header: " + path);
+            }
+        }
+        if (rows <= 0 || columns <= 0 || largestLake < 0) {
+            throw new IOException("Broken snapshot header: " + path);
+        }
+    }
+
+    // Reads the header of a snapshot. Sections are loaded later when they are needed. The file is kept open until
+    // close is called, but maps which are already loaded can still be used after that.
+    public static SolveSnapshot open(String input) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(input), StandardOpenOption.READ);
+        try {
+            return new SolveSnapshot(input, channel);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    // Returns true if the file starts like a snapshot. It is used by Main to choose between a terrain file and a
+    // snapshot.
+    public static boolean isSnapshot(String input) {
+        ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = FileChannel.open(Paths.get(input), StandardOpenOption.READ)) {
+            while (magic.hasRemaining() && channel.read(magic) > 0) {
+                // Reads the first 4 bytes.
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == SNAPSHOT_MAGIC;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    // Solves a map with the priority flood and writes the snapshot.
+    public static void save(GameMap map, String output) throws IOException {
+        GameMap waterMap = new WaterCalculator(map, WaterCalculator.Engine.PRIORITY_FLOOD).calculateWaterLevels();
+        GameMap namesMap = new NameCalculator(waterMap).calculateNames();
+        write(output, map, waterMap, namesMap, GameMap.finalMap(waterMap, namesMap, map));
+    }
+
+    // Writes the snapshot of a map which is already solved: map is the height map, waterMap and namesMap are the
+    // results of WaterCalculator and NameCalculator, and finalMap is made from them by GameMap.finalMap. newSolver
+    // needs lakes which are numbered by the UNION_FIND engine of NameCalculator.
+    public static void write(String output, GameMap map, GameMap waterMap, GameMap namesMap, GameMap finalMap)
+            throws IOException {
+        Grid heights = map.getHeightGrid();
+        Grid water = waterMap.getHeightGrid();
+        // Small maps have no lake numbers, see GameMap.finalMap.
+        Grid lakes = namesMap.getLakeGrid() != null ? namesMap.getLakeGrid() : heights.blank();
+        LakeIndex index = finalMap.getLakeIndex() != null ? finalMap.getLakeIndex() : indexOf(lakes, water);
+        int[] modifications = map.getModifications();
+        try (FileChannel channel = FileChannel.open(Paths.get(output), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            CRC32C crc = new CRC32C();
+            int[] checksums = new int[SECTION_COUNT];
+            long[] offsets = new long[SECTION_COUNT];
+            long[] lengths = new long[SECTION_COUNT];
+            // The header is written last, when the checksums are known.
+            long position = HEADER_BYTES;
+            for (int section = 0; section < SECTION_COUNT; section++) {
+                int padding = (int) (-position & (Long.BYTES - 1));
+                if (padding > 0) {
+                    buffer.put(new byte[padding]);
+                    position += flush(channel, buffer, position, null);
+                }
+                offsets[section] = position;
+                crc.reset();
+                int count = section == MODIFICATIONS ? modifications.length
+                        : section == LAKE_STATS ? index.getLargestLake() : heights.size();
+                for (int i = 0; i < count; i++) {
+                    if (buffer.remaining() < LakeIndex.LAKE_BYTES) {
+                        position += flush(channel, buffer, position, crc);
+                    }
+                    if (section == HEIGHTS) {
+                        buffer.putInt(heights.get(i));
+                    } else if (section == MODIFICATIONS) {
+                        buffer.putInt(modifications[i]);
+                    } else if (section == WATER) {
+                        buffer.putInt(water.get(i));
+                    } else if (section == LAKES) {
+                        buffer.putInt(lakes.get(i));
+                    } else {
+                        index.putLake(i + 1, buffer);
+                    }
+                }
+                position += flush(channel, buffer, position, crc);
+                lengths[section] = position - offsets[section];
+                checksums[section] = (int) crc.getValue();
+            }
+            buffer.putInt(SNAPSHOT_MAGIC).putInt(VERSION).putInt(heights.getColumnNumber())
+                    .putInt(heights.getRowNumber()).putInt(index.getLargestLake()).putInt(SECTION_COUNT)
+                    .putDouble(finalMap.getScore());
+            for (int section = 0; section < SECTION_COUNT; section++) {
+                buffer.putInt(section).putInt(checksums[section]).putLong(offsets[section]).putLong(lengths[section]);
+            }
+            crc.reset();
+            crc.update(buffer.array(), 0, buffer.position());
+            buffer.putInt((int) crc.getValue());
+            flush(channel, buffer, 0, null);
+        }
+    }
+
+    // Writes the buffer at given position of the file and returns the number of bytes written.
+    private static int flush(FileChannel channel, ByteBuffer buffer, long position, CRC32C crc) throws IOException {
+        buffer.flip();
+        if (crc != null) {
+            crc.update(buffer.array(), 0, buffer.limit());
+        }
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        buffer.clear();
+        return written;
+    }
+
+    private static LakeIndex indexOf(Grid lakes, Grid water) {
+        LakeIndex index = new LakeIndex(lakes, water);
+        for (int i = 0; i < lakes.size(); i++) {
+            if (lakes.get(i) != 0) {
+                index.add(lakes.get(i), i, water.get(i));
+            }
+        }
+        return index;
+    }
+
+    // Maps a section and checks its checksum the first time it is needed.
+    private synchronized ByteBuffer section(int section) throws IOException {
+        if (sections[section] == null) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offsets[section], lengths[section]);
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.duplicate());
+            if ((int) crc.getValue() != checksums[section]) {
+                throw new IOException("Wrong checksum of snapshot section " + section + ": " + path);
+            }
+            sections[section] = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return sections[section];
+    }
+
+    private Grid grid(int section) throws IOException {
+        return new BufferGrid(rows, columns, section(section).asIntBuffer());
+    }
+
+    // Returns the height map with its modifications. It is the same map each time, so stones added to it are kept.
+    public synchronized GameMap getHeightMap() throws IOException {
+        if (heightMap == null) {
+            ByteBuffer bytes = section(MODIFICATIONS);
+            int[] modifications = new int[bytes.limit() / Integer.BYTES];
+            bytes.asIntBuffer().get(modifications);
+            heightMap = GameMap.heightMap(grid(HEIGHTS), modifications);
+        }
+        return heightMap;
+    }
+
+    // Returns the water depths, like the result of WaterCalculator.
+    public synchronized GameMap getWaterMap() throws IOException {
+        if (waterMap == null) {
+            waterMap = new GameMap(grid(WATER));
+        }
+        return waterMap;
+    }
+
+    // Returns the lake numbers, like the result of NameCalculator.
+    public synchronized GameMap getNamesMap() throws IOException {
+        if (namesMap == null) {
+            namesMap = GameMap.lakeMap(grid(LAKES), getLakeIndex());
+        }
+        return namesMap;
+    }
+
+    // Returns the final map with the score and the statistics of the lakes, like GameMap.finalMap, without going
+    // over the squares again.
+    public synchronized GameMap getFinalMap() throws IOException {
+        if (finalMap == null) {
+            if (rows <= 2 && columns <= 2) {
+                // Same as GameMap.finalMap for small maps.
+                finalMap = new GameMap(getWaterMap().getHeightGrid());
+            } else {
+                Grid walls = getHeightMap().getHeightGrid();
+                finalMap = GameMap.solvedMap(walls, getNamesMap().getLakeGrid(),
+                        getNamesMap().getLakeIndex().withWalls(walls), score);
+            }
+        }
+        return finalMap;
+    }
+
+    // Statistics of the lakes. Spill elevations are known in the index of getFinalMap.
+    private LakeIndex getLakeIndex() throws IOException {
+        if (namesMap != null) {
+            return namesMap.getLakeIndex();
+        }
+        ByteBuffer bytes = section(LAKE_STATS).duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        LakeIndex index = new LakeIndex(grid(LAKES), getWaterMap().getHeightGrid());
+        for (int lake = 1; lake <= largestLake; lake++) {
+            index.readLake(lake, bytes);
+        }
+        return index;
+    }
+
+    // Returns a solver which starts from the saved water and lakes instead of solving the map again. Its stones are
+    // added to the map of getHeightMap.
+    public IncrementalSolver newSolver() throws IOException {
+        return new IncrementalSolver(getHeightMap(), getWaterMap().getHeightGrid(), getNamesMap().getLakeGrid());
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    public int getRowNumber() {
+        return rows;
+    }
+
+    public int getColumnNumber() {
+        return columns;
+    }
+
+    // Checks the checksums of all sections, which are loaded if they are not loaded yet.
+    public void verify() throws IOException {
+        for (int section = 0; section < SECTION_COUNT; section++) {
+            section(section);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public static void main(String[] args) {
+        boolean save = args.length == 3 && args[0].equals("save");
+        if (!save && !(args.length == 2 && args[0].equals("check"))) {
+            System.out.println("Usage: java SolveSnapshot save <input file> <snapshot file>");
+            System.out.println("       java SolveSnapshot check <snapshot file>");
+            System.exit(1);
+        }
+        try {
+            if (save) {
+                GameMap map = args[1].endsWith(".trw") ? GameMap.fromBinary(args[1]) : new GameMap(args[1]);
+                save(map, args[2]);
+                System.out.printf("Saved %s (%d bytes)%n", args[2], Files.size(Paths.get(args[2])));
+            } else {
+                try (SolveSnapshot snapshot = open(args[1])) {
+                    snapshot.verify();
+                    System.out.printf("%d x %d map, %d lakes, score %.2f%n", snapshot.rows, snapshot.columns,
+                            snapshot.getLakeIndex().getLakeCount(), snapshot.score);
+                }
+            }
+        } catch (IOException ex) {
+            System.out.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+// This class finds stones which give a high score, instead of asking the user for them. Usage:
+// java StoneOptimizer <input file> [beam width] [number of threads]
+// Stones are chosen with a beam search: after each stone only the beamWidth best placements are kept, and the next
+// stone is tried on every square of each of them. Beam width 1 is a greedy search. A placement is scored with an
+// IncrementalSolver, so only the part of the map which is changed by the stone is calculated again. Each thread has
+// its own copy of a placement, which keeps an undo log (see IncrementalSolver.undo). A stone is added to the copy and
+// taken back after it is scored, so only the changed squares are restored, not the whole map. The placement is copied
+// again with IncrementalSolver.copyFrom only when the thread goes on to the next placement, or when the stone changed
+// so much of the map that the log is full.
+// A stone can't change anything on a square which is higher than the water around it, since no water passes over that
+// square. Such squares are not tried.
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class StoneOptimizer {
+    // Number of stones in the game, see GameMap.makeModifications.
+    public static final int STONES = 10;
+
+    private final IncrementalSolver solver;
+    private final int beamWidth;
+    private final int threads;
+
+    public StoneOptimizer(GameMap map, int beamWidth, int threads) {
+        if (beamWidth < 1 || threads < 1) {
+            throw new IllegalArgumentException("Beam width and number of threads must be at least 1");
+        }
+        // The map itself is not changed, stones are added to copies of the solver.
+        this.solver = new IncrementalSolver(map).copy();
+        this.beamWidth = beamWidth;
+        this.threads = threads;
+    }
+
+    public static final class Result {
+        // Squares of the stones in the order they are added.
+        public final int[] stones;
+        public final double score;
+        // Number of placements which are scored.
+        public final long evaluations;
+        public final long nanos;
+
+        Result(int[] stones, double score, long evaluations, long nanos) {
+            this.stones = stones;
+            this.score = score;
+            this.evaluations = evaluations;
+            this.nanos = nanos;
+        }
+    }
+
+    // A placement of some stones with its solver.
+    private static final class State {
+        final IncrementalSolver solver;
+        final int[] stones;
+        final double score;
+
+        State(IncrementalSolver solver, int[] stones) {
+            this.solver = solver;
+            this.stones = stones;
+            this.score = solver.getScore();
+        }
+    }
+
+    public Result optimize() throws InterruptedException {
+        return optimize(STONES);
+    }
+
+    public Result optimize(int stoneCount) throws InterruptedException {
+        long start = System.nanoTime();
+        long evaluations = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<State> beam = new ArrayList<>();
+            beam.add(new State(solver, new int[0]));
+            for (int step = 0; step < stoneCount; step++) {
+                // Try pairs[i] = (placement, square) and keep the score in scores[i].
+                List<int[]> pairs = new ArrayList<>();
+                for (int parent = 0; parent < beam.size(); parent++) {
+                    for (int cell : candidates(beam.get(parent).solver)) {
+                        pairs.add(new int[]{parent, cell});
+                    }
+                }
+                double[] scores = score(pool, beam, pairs);
+                evaluations += pairs.size();
+                beam = select(beam, pairs, scores);
+            }
+            State best = beam.get(0);
+            return new Result(best.stones, best.score, evaluations, System.nanoTime() - start);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Returns the squares where a stone may change the score: squares under water, and squares with a neighbour whose
+    // water height is at least the height of the square. If there is no such square, every square is returned.
+    private static int[] candidates(IncrementalSolver solver) {
+        Grid heights = solver.getHeightGrid();
+        Grid levels = solver.getLevelGrid();
+        int rows = heights.getRowNumber();
+        int columns = heights.getColumnNumber();
+        int[] cells = new int[heights.size()];
+        int count = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int cell = row * columns + column;
+                int height = heights.get(cell);
+                boolean candidate = levels.get(cell) > height;
+                for (int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1) && !candidate; r++) {
+                    for (int c = Math.max(0, column - 1); c <= Math.min(columns - 1, column + 1); c++) {
+                        if ((r != row || c != column) && levels.get(r * columns + c) >= height) {
+                            candidate = true;
+                            break;
+                        }
+                    }
+                }
+                if (candidate) {
+                    cells[count++] = cell;
+                }
+            }
+        }
+        if (count == 0) {
+            for (int cell = 0; cell < cells.length; cell++) {
+                cells[cell] = cell;
+            }
+            return cells;
+        }
+        return Arrays.copyOf(cells, count);
+    }
+
+    // Scores the pairs in parallel. Each thread takes a part of the pairs and uses one solver for all of them. Pairs of
+    // the same placement are next to each other, so the solver is copied from each placement at most once.
+    private double[] score(ExecutorService pool, List<State> beam, List<int[]> pairs) throws InterruptedException {
+        double[] scores = new double[pairs.size()];
+        int parts = Math.min(threads, Math.max(1, pairs.size()));
+        List<Future<?>> futures = new ArrayList<>();
+        for (int part = 0; part < parts; part++) {
+            int from = (int) ((long) pairs.size() * part / parts);
+            int to = (int) ((long) pairs.size() * (part + 1) / parts);
+            futures.add(pool.submit(() -> {
+                IncrementalSolver trial = null;
+                int trialParent = -1;
+                for (int i = from; i < to; i++) {
+                    int parent = pairs.get(i)[0];
+                    if (trial == null) {
+                        trial = beam.get(parent).solver.copy();
+                        trial.keepUndoLog();
+                    } else if (parent != trialParent) {
+                        trial.copyFrom(beam.get(parent).solver);
+                    }
+                    trialParent = parent;
+                    trial.addStone(pairs.get(i)[1]);
+                    scores[i] = trial.getScore();
+                    if (!trial.undo()) {
+                        trial.copyFrom(beam.get(parent).solver);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException(ex.getCause());
+            }
+        }
+        return scores;
+    }
+
+    // Keeps the beamWidth best placements. Placements with the same stones in a different order are kept once. If the
+    // scores are equal, the placement found first is kept, so the result doesn't depend on the number of threads.
+    private List<State> select(List<State> beam, List<int[]> pairs, double[] scores) {
+        Integer[] order = new Integer[pairs.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> scores[a] != scores[b] ? Double.compare(scores[b], scores[a]) : a - b);
+        List<State> next = new ArrayList<>();
+        Set<List<Integer>> placements = new HashSet<>();
+        for (int i = 0; i < order.length && next.size() < beamWidth; i++) {
+            int[] pair = pairs.get(order[i]);
+            State parent = beam.get(pair[0]);
+            int[] stones = Arrays.copyOf(parent.stones, parent.stones.length + 1);
+            stones[stones.length - 1] = pair[1];
+            int[] sorted = stones.clone();
+            Arrays.sort(sorted);
+            List<Integer> placement = new ArrayList<>();
+            for (int stone : sorted) {
+                placement.add(stone);
+            }
+            if (!placements.add(placement)) {
+                continue;
+            }
+            IncrementalSolver child = parent.solver.copy();
+            child.addStone(pair[1]);
+            next.add(new State(child, stones));
+        }
+        return next;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 3) {
+            System.out.println("Usage: java StoneOptimizer <input file> [beam width] [number of threads]");
+            System.exit(1);
+        }
+        try {
+            int beamWidth = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+            int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+            GameMap map = new GameMap(args[0]);
+            StoneOptimizer optimizer = new StoneOptimizer(map, beamWidth, threads);
+            Result result = optimizer.optimize();
+            int columns = map.getHeightGrid().getColumnNumber();
+            StringBuilder stones = new StringBuilder();
+            for (int stone : result.stones) {
+                stones.append(stones.length() == 0 ? "" : " ").append(GameMap.coordinateOf(stone, columns));
+            }
+            System.out.println("Stones: " + stones);
+            System.out.printf("Best score: %.2f%n", result.score);
+            System.out.printf("Found in %.1f ms after scoring %d placements%n", result.nanos / 1e6,
+                    result.evaluations);
+        } catch (IllegalArgumentException | IOException ex) {
+            System.out.println(ex.getMessage());
+            System.exit(1);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            System.exit(1);
+        }
+    }
+}
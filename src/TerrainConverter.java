@@ -0,0 +1,20 @@
+// This class converts a text input file into a binary terrain file which can be loaded by GameMap.fromBinary.
+// Modifications section of the text file is also written. Usage: java TerrainConverter input.txt input.trw
+import java.io.IOException;
+
+public class TerrainConverter {
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.out.println("Usage: java TerrainConverter <text input> <binary output>");
+            System.exit(1);
+        }
+        try {
+            GameMap map = new GameMap(args[0]);
+            map.writeBinary(args[1]);
+        } catch (IOException ex) {
+            System.out.println(ex.getMessage());
+            System.exit(1);
+        }
+        System.out.println("Converted " + args[0] + " into " + args[1]);
+    }
+}
\ No newline at end of file
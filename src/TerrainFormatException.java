@@ -0,0 +1,25 @@
+// This exception is thrown when an input file has a wrong format. It keeps the line and the column (both start from 1)
+// of the problem, so a wrong file can be reported without stopping the program.
+
+import java.io.IOException;
+
+public class TerrainFormatException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int line;
+    private final int column;
+
+    public TerrainFormatException(String message, int line, int column) {
+        super(message + " at line " + line + ", column " + column);
+        this.line = line;
+        this.column = column;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+}
@@ -0,0 +1,295 @@
+// This class generates terrain files for tests with big or difficult maps. Usage:
+// java TerrainGenerator <shape> <column number> <row number> <seed> <output> [number of stones]
+// Shapes are random, fractal, pits, basin, frames and diagonal_leaks. If the output ends with ".trw", a binary terrain
+// file is written (see GameMap.fromBinary), otherwise the text format is written. The same arguments always give the
+// same file.
+// Height of a square is calculated only from the seed and its row and column, so the map is written row by row and only
+// one row is kept in memory. Maps with tens of millions of squares can be generated.
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class TerrainGenerator {
+    public enum Shape {
+        // Random heights between 0 and 9.
+        RANDOM,
+        // Hills and valleys made of several octaves of Perlin noise. Heights are between 0 and 99.
+        FRACTAL,
+        // Pits of random depth at every square with odd row and column, surrounded by walls of height 3.
+        PITS,
+        // A rim of height 9 around a rough floor lower than 5, so the whole inside is one lake.
+        BASIN,
+        // Square frames inside each other. Every second frame is a wall which is higher than the outer one, so every
+        // frame between them is a lake. The frame sweep engine has to finish every frame before moving inside.
+        FRAMES,
+        // V shaped chains of low squares which hang from the top and the bottom border, separated by walls of height 9.
+        // A chain goes into the map on one diagonal and comes back on the other one, so it is connected only through
+        // diagonal neighbours. It drains only through a square of height 5 at the border where it starts. The frame
+        // sweep engine floods the leg which comes back before it knows that the chain drains, so at the bottom of each
+        // V the two legs have different water levels and it goes back to an outer frame (see
+        // WaterCalculator.getGoOuterRestarts). The number of these restarts grows with the width of the map.
+        DIAGONAL_LEAKS
+    }
+
+    // Columns for each chain of DIAGONAL_LEAKS.
+    private static final int LEAK_PERIOD = 24;
+    // Base size of the fractal noise in squares.
+    private static final int FRACTAL_PERIOD = 64;
+    private static final int FRACTAL_OCTAVES = 5;
+    private static final double[] GRADIENT_X = {1, -1, 0, 0, 0.7071, -0.7071, 0.7071, -0.7071};
+    private static final double[] GRADIENT_Y = {0, 0, 1, -1, 0.7071, 0.7071, -0.7071, -0.7071};
+
+    private final Shape shape;
+    private final int columnNumber;
+    private final int rowNumber;
+    private final long seed;
+
+    public TerrainGenerator(Shape shape, int columnNumber, int rowNumber, long seed) {
+        if (columnNumber <= 0 || rowNumber <= 0) {
+            throw new IllegalArgumentException("Column and row numbers must be positive");
+        }
+        if ((long) columnNumber * rowNumber > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Map is too big: " + columnNumber + " x " + rowNumber);
+        }
+        this.shape = shape;
+        this.columnNumber = columnNumber;
+        this.rowNumber = rowNumber;
+        this.seed = seed;
+    }
+
+    // Returns the height of the square at (row, column).
+    public int height(int row, int column) {
+        switch (shape) {
+            case RANDOM:
+                return (int) Long.remainderUnsigned(hash(row, column, 0), 10);
+            case FRACTAL:
+                return fractal(row, column);
+            case PITS:
+                if (row % 2 == 1 && column % 2 == 1 && row < rowNumber - 1 && column < columnNumber - 1) {
+                    return (int) Long.remainderUnsigned(hash(row, column, 0), 3);
+                }
+                return 3;
+            case BASIN:
+                if (layer(row, column) == 0) {
+                    return 9;
+                }
+                return (int) Long.remainderUnsigned(hash(row, column, 0), 5);
+            case FRAMES: {
+                int layer = layer(row, column);
+                return layer % 2 == 0 ? layer / 2 + 1 : 0;
+            }
+            default:
+                return diagonalLeak(row, column);
+        }
+    }
+
+    // Distance of a square to the border of the map.
+    private int layer(int row, int column) {
+        return Math.min(Math.min(row, column), Math.min(rowNumber - 1 - row, columnNumber - 1 - column));
+    }
+
+    // Chain i of a border takes columns i * LEAK_PERIOD + 2 to i * LEAK_PERIOD + 2 * depth + 1, and its depth is 4, 6
+    // or 8 rows. Depths are even, so legs of two chains are two columns apart in a row only at the bottom of a V;
+    // otherwise the restarts could go on up to the border of the map. There are no chains in the first and the last
+    // LEAK_PERIOD columns, so the bottom of each V is inside a frame of the frame sweep. Squares of a chain are lower
+    // than the square where it drains, so all of them have the same water level after the map is solved.
+    private int diagonalLeak(int row, int column) {
+        boolean bottom = row > rowNumber / 2;
+        int depthOfRow = bottom ? rowNumber - 1 - row : row;
+        int chain = column / LEAK_PERIOD;
+        int x = column % LEAK_PERIOD - 2;
+        int depth = 4 + 2 * (int) Long.remainderUnsigned(hash(chain, bottom ? -2 : -3, 1), 3);
+        if (chain == 0 || (chain + 1) * LEAK_PERIOD > columnNumber - 1 || rowNumber < 2 * depth + 6 || x < 0
+                || x >= 2 * depth) {
+            return 9;
+        }
+        int chainRow = x <= depth ? x : 2 * depth - x;
+        if (depthOfRow != chainRow) {
+            return 9;
+        }
+        if (depthOfRow == 0) {
+            return 5;
+        }
+        return 1 + (int) Long.remainderUnsigned(hash(row, column, 0), 4);
+    }
+
+    private int fractal(int row, int column) {
+        double sum = 0;
+        double amplitude = 1;
+        double total = 0;
+        double period = FRACTAL_PERIOD;
+        for (int octave = 0; octave < FRACTAL_OCTAVES; octave++) {
+            sum += amplitude * perlin(row / period, column / period, octave);
+            total += amplitude;
+            amplitude /= 2;
+            period /= 2;
+        }
+        // Perlin noise is between -1 and 1, but values near the ends are rare, so the range is stretched a bit.
+        int value = (int) Math.round((sum / total * 2 + 1) * 50);
+        return Math.max(0, Math.min(99, value));
+    }
+
+    // Two dimensional Perlin noise. Gradients at the corners of the lattice are chosen from eight directions by hashing
+    // the corner.
+    private double perlin(double y, double x, int octave) {
+        int y0 = (int) Math.floor(y);
+        int x0 = (int) Math.floor(x);
+        double fy = y - y0;
+        double fx = x - x0;
+        double top = lerp(gradient(y0, x0, octave, fy, fx), gradient(y0, x0 + 1, octave, fy, fx - 1), fade(fx));
+        double bottom = lerp(gradient(y0 + 1, x0, octave, fy - 1, fx),
+                gradient(y0 + 1, x0 + 1, octave, fy - 1, fx - 1), fade(fx));
+        return lerp(top, bottom, fade(fy));
+    }
+
+    private double gradient(int row, int column, int octave, double dy, double dx) {
+        int direction = (int) (hash(row, column, octave + 1) >>> 61);
+        return GRADIENT_X[direction] * dx + GRADIENT_Y[direction] * dy;
+    }
+
+    private static double fade(double t) {
+        return t * t * t * (t * (t * 6 - 15) + 10);
+    }
+
+    private static double lerp(double a, double b, double t) {
+        return a + (b - a) * t;
+    }
+
+    // Mixes the seed, a square and a salt into a random looking number (the finalizer of SplitMix64).
+    private long hash(int row, int column, int salt) {
+        long square = (long) row << 32 | (column & 0xFFFFFFFFL);
+        long z = seed + 0x9E3779B97F4A7C15L * (square + 1) + salt * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // Chooses squares for stones. The same square may be chosen more than once.
+    public int[] stones(int count) {
+        int[] stones = new int[count];
+        long cells = (long) rowNumber * columnNumber;
+        for (int i = 0; i < count; i++) {
+            stones[i] = (int) Long.remainderUnsigned(hash(i, -1, -1), cells);
+        }
+        return stones;
+    }
+
+    // Writes the map in the text format. Stones are written in the Modifications section, which is possible only if
+    // every square has a coordinate like a1 or ab12 (at most 702 columns and 1000 rows).
+    public void writeText(String output, int[] stones) throws IOException {
+        if (stones.length > 0 && (columnNumber > 26 * 27 || rowNumber > 1000)) {
+            throw new IOException("Stones can't be written as coordinates for a map bigger than 702 x 1000");
+        }
+        // A height has at most 10 digits and a space.
+        byte[] line = new byte[columnNumber * 11 + 1];
+        try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(output), 1 << 16)) {
+            stream.write((columnNumber + " " + rowNumber + "\n").getBytes(StandardCharsets.US_ASCII));
+            for (int row = 0; row < rowNumber; row++) {
+                int length = 0;
+                for (int column = 0; column < columnNumber; column++) {
+                    if (column > 0) {
+                        line[length++] = ' ';
+                    }
+                    length = writeNumber(line, length, height(row, column));
+                }
+                line[length++] = '\n';
+                stream.write(line, 0, length);
+            }
+            if (stones.length > 0) {
+                stream.write("\nModifications:\n".getBytes(StandardCharsets.US_ASCII));
+                for (int stone : stones) {
+                    String coordinate = GameMap.coordinateOf(stone, columnNumber) + "\n";
+                    stream.write(coordinate.getBytes(StandardCharsets.US_ASCII));
+                }
+            }
+        }
+    }
+
+    private static int writeNumber(byte[] line, int length, int number) {
+        int start = length;
+        do {
+            line[length++] = (byte) ('0' + number % 10);
+            number /= 10;
+        } while (number > 0);
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte temp = line[i];
+            line[i] = line[j];
+            line[j] = temp;
+        }
+        return length;
+    }
+
+    // Writes the map in the binary format which is read by GameMap.fromBinary.
+    public void writeBinary(String output, int[] stones) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(output), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(GameMap.BINARY_MAGIC).putInt(columnNumber).putInt(rowNumber).putInt(stones.length);
+            for (int row = 0; row < rowNumber; row++) {
+                for (int column = 0; column < columnNumber; column++) {
+                    if (!buffer.hasRemaining()) {
+                        flush(channel, buffer);
+                    }
+                    buffer.putInt(height(row, column));
+                }
+            }
+            for (int stone : stones) {
+                if (!buffer.hasRemaining()) {
+                    flush(channel, buffer);
+                }
+                buffer.putInt(stone);
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 5 && args.length != 6) {
+            System.out.println("Usage: java TerrainGenerator <shape> <column number> <row number> <seed> <output> "
+                    + "[number of stones]");
+            System.exit(1);
+        }
+        Shape shape = null;
+        try {
+            shape = Shape.valueOf(args[0].toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            System.out.println("Unknown shape: " + args[0]);
+            System.exit(1);
+        }
+        try {
+            int columnNumber = Integer.parseInt(args[1]);
+            int rowNumber = Integer.parseInt(args[2]);
+            long seed = Long.parseLong(args[3]);
+            int stoneCount = args.length == 6 ? Integer.parseInt(args[5]) : 0;
+            if (stoneCount < 0) {
+                throw new IllegalArgumentException("Number of stones can't be negative");
+            }
+            TerrainGenerator generator = new TerrainGenerator(shape, columnNumber, rowNumber, seed);
+            int[] stones = generator.stones(stoneCount);
+            if (args[4].endsWith(".trw")) {
+                generator.writeBinary(args[4], stones);
+            } else {
+                generator.writeText(args[4], stones);
+            }
+        } catch (IllegalArgumentException | IOException ex) {
+            System.out.println(ex.getMessage());
+            System.exit(1);
+        }
+        System.out.println("Generated " + args[4]);
+    }
+}
@@ -0,0 +1,188 @@
+// This class reads a text input file. It reads the bytes of the file only once through its own buffer and turns digits
+// into numbers while reading them, so no String is created for a wall height. The format is:
+// - First line has the column number and the row number.
+// - Each of the following rows has at most column number wall heights separated by spaces. Missing heights at the end
+// of a row are zero.
+// - After the rows, lines following a "Modifications:" line are coordinates like a1 or b2.
+// If there is a problem, a TerrainFormatException is thrown with the line and the column of the problem.
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.function.BiFunction;
+
+public class TerrainParser {
+    private final InputStream stream;
+    private final byte[] buffer = new byte[1 << 16];
+    private int length;
+    private int position;
+    // Line and column of the next byte.
+    private int line;
+    private int column;
+
+    private Grid heights;
+    private int[] modifications;
+
+    public TerrainParser(InputStream stream) {
+        this.stream = stream;
+        line = 1;
+        column = 1;
+    }
+
+    public Grid getHeights() {
+        return heights;
+    }
+
+    public int[] getModifications() {
+        return modifications;
+    }
+
+    // Reads the whole stream. If offHeap is true, heights are stored outside of the heap.
+    public void parse(boolean offHeap) throws IOException {
+        parse(offHeap ? Grid::offHeap : Grid::onHeap);
+    }
+
+    // Reads the whole stream into a grid which is created by given function from the row number and the column number,
+    // e.g. RunLengthGrid::new. Heights are set row by row from left to right.
+    public void parse(BiFunction<Integer, Integer, Grid> gridFactory) throws IOException {
+        skipSpaces();
+        int columnNumber = readNumber("Wrong format for column or row number");
+        skipSpaces();
+        int rowNumber = readNumber("Wrong format for column or row number");
+        skipSpaces();
+        if (columnNumber == 0 || rowNumber == 0) {
+            throw new TerrainFormatException("Wrong format for column or row number", line, column);
+        }
+        endLine("Wrong format for column or row number");
+
+        heights = gridFactory.apply(rowNumber, columnNumber);
+        for (int row = 0; row < rowNumber && peek() != -1; row++) {
+            int index = row * columnNumber;
+            int count = 0;
+            while (true) {
+                skipSpaces();
+                int next = peek();
+                if (next == '\n' || next == '\r' || next == -1) {
+                    break;
+                }
+                if (count == columnNumber) {
+                    throw new TerrainFormatException("Too many wall heights in row " + row, line, column);
+                }
+                heights.set(index + count, readNumber("Wrong format for wall height"));
+                count++;
+            }
+            if (count == 0) {
+                throw new TerrainFormatException("Wrong format for wall height", line, column);
+            }
+            endLine("Wrong format for wall height");
+        }
+
+        // The rest of the file is small, so its lines are read as Strings.
+        modifications = new int[0];
+        int stones = 0;
+        boolean modificationSection = false;
+        while (peek() != -1) {
+            int lineNumber = line;
+            String text = readLine().trim();
+            if (text.equals("Modifications:")) {
+                modificationSection = true;
+            } else if (modificationSection && !text.isEmpty()) {
+                int cell = GameMap.parseCoordinate(text, rowNumber, columnNumber);
+                if (cell == -1) {
+                    throw new TerrainFormatException("Wrong format for modification " + text, lineNumber, 1);
+                }
+                if (stones == modifications.length) {
+                    modifications = Arrays.copyOf(modifications, Math.max(10, stones * 2));
+                }
+                modifications[stones++] = cell;
+            }
+        }
+        modifications = Arrays.copyOf(modifications, stones);
+    }
+
+    // Returns the next byte without consuming it, or -1 at the end of the stream.
+    private int peek() throws IOException {
+        if (position == length) {
+            length = stream.read(buffer, 0, buffer.length);
+            position = 0;
+            if (length <= 0) {
+                length = 0;
+                return -1;
+            }
+        }
+        return buffer[position] & 0xFF;
+    }
+
+    private void consume() {
+        if (buffer[position] == '\n') {
+            line++;
+            column = 1;
+        } else {
+            column++;
+        }
+        position++;
+    }
+
+    private void skipSpaces() throws IOException {
+        int next = peek();
+        while (next == ' ' || next == '\t') {
+            consume();
+            next = peek();
+        }
+    }
+
+    // Reads a non-negative number. The number should be followed by a space, the end of the line or the end of the
+    // file.
+    private int readNumber(String error) throws IOException {
+        int startLine = line;
+        int startColumn = column;
+        int next = peek();
+        if (next < '0' || next > '9') {
+            throw new TerrainFormatException(error, startLine, startColumn);
+        }
+        long number = 0;
+        while (next >= '0' && next <= '9') {
+            number = number * 10 + (next - '0');
+            if (number > Integer.MAX_VALUE) {
+                throw new TerrainFormatException(error, startLine, startColumn);
+            }
+            consume();
+            next = peek();
+        }
+        if (next != ' ' && next != '\t' && next != '\r' && next != '\n' && next != -1) {
+            throw new TerrainFormatException(error, line, column);
+        }
+        return (int) number;
+    }
+
+    // Consumes the end of the current line. Only spaces are allowed before it.
+    private void endLine(String error) throws IOException {
+        skipSpaces();
+        int next = peek();
+        if (next == '\r') {
+            consume();
+            next = peek();
+        }
+        if (next == '\n') {
+            consume();
+        } else if (next != -1) {
+            throw new TerrainFormatException(error, line, column);
+        }
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder text = new StringBuilder();
+        int next = peek();
+        while (next != '\n' && next != -1) {
+            if (next != '\r') {
+                text.append((char) next);
+            }
+            consume();
+            next = peek();
+        }
+        if (next == '\n') {
+            consume();
+        }
+        return text.toString();
+    }
+}
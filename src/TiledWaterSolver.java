@@ -0,0 +1,200 @@
+// This class calculates the same water heights as the priority flood of WaterCalculator by using more than one thread.
+// The map is split into square tiles and each tile is flooded on its own.
+// Calculation is like that:
+// 1: Water heights of the most outer walls are their wall heights. Every other square starts with an unknown (infinite)
+// water height.
+// 2: A tile is flooded like the priority flood, but it starts from its own edge. For a square at the edge of the tile,
+// water can leave through a neighbour in another tile, so its water height is at most the maximum of its wall and the
+// water height of that neighbour. These squares are put into the heap and the tile is flooded from them, also through
+// the diagonals. This gives the spill level of every square of the tile for the current water heights around it.
+// When a tile is flooded again, only the squares whose water height decreases are visited.
+// 3: Water heights only decrease, and if the edge of a tile changes, the tiles around it are flooded again. When no
+// tile changes anymore, water heights are the same as the sequential engine. Every height found is the height of a
+// real way out of the map, and when nothing changes every square is at most as high as its neighbours allow, so the
+// heights can't be lower or higher than the ones of the sequential engine.
+// Tiles are coloured like a 2x2 chessboard. Tiles of the same colour don't touch each other, even diagonally, so they
+// are flooded at the same time without reading a square that is being written by another thread.
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+public class TiledWaterSolver {
+    private static final int UNKNOWN = Integer.MAX_VALUE;
+
+    private final Grid heights;
+    private final int rows;
+    private final int columns;
+    private final int tileSize;
+    private final int tileRows;
+    private final int tileColumns;
+    private Grid levels;
+
+    public TiledWaterSolver(Grid heights, int tileSize) {
+        this.heights = heights;
+        this.tileSize = tileSize;
+        rows = heights.getRowNumber();
+        columns = heights.getColumnNumber();
+        tileRows = (rows + tileSize - 1) / tileSize;
+        tileColumns = (columns + tileSize - 1) / tileSize;
+    }
+
+    // Returns the water heights (not levels) of all squares. Heights of the most outer walls are their wall heights.
+    public Grid solve(ForkJoinPool pool) {
+        levels = heights.blank();
+        GridKernels.get().seedFrame(levels, heights, UNKNOWN);
+        boolean[] dirty = new boolean[tileRows * tileColumns];
+        Arrays.fill(dirty, true);
+        boolean anyDirty = true;
+        while (anyDirty) {
+            for (int colour = 0; colour < 4; colour++) {
+                List<TileTask> tasks = new ArrayList<>();
+                for (int tileRow = colour / 2; tileRow < tileRows; tileRow += 2) {
+                    for (int tileColumn = colour % 2; tileColumn < tileColumns; tileColumn += 2) {
+                        int tile = tileRow * tileColumns + tileColumn;
+                        if (dirty[tile]) {
+                            dirty[tile] = false;
+                            tasks.add(new TileTask(tileRow, tileColumn));
+                        }
+                    }
+                }
+                if (tasks.size() == 1) {
+                    tasks.get(0).invoke();
+                } else if (!tasks.isEmpty()) {
+                    pool.invoke(new PhaseTask(tasks));
+                }
+                // Tiles around a changed edge are flooded again. They have other colours, so they are flooded later
+                // in this round or in the next one.
+                for (TileTask task : tasks) {
+                    if (task.join()) {
+                        markAround(dirty, task.tileRow, task.tileColumn);
+                    }
+                }
+            }
+            anyDirty = false;
+            for (boolean tileDirty : dirty) {
+                anyDirty |= tileDirty;
+            }
+        }
+        return levels;
+    }
+
+    private void markAround(boolean[] dirty, int tileRow, int tileColumn) {
+        for (int i = tileRow - 1; i <= tileRow + 1; i++) {
+            for (int j = tileColumn - 1; j <= tileColumn + 1; j++) {
+                if (i >= 0 && i < tileRows && j >= 0 && j < tileColumns && (i != tileRow || j != tileColumn)) {
+                    dirty[i * tileColumns + j] = true;
+                }
+            }
+        }
+    }
+
+    // Runs the tiles of one colour at the same time.
+    private static class PhaseTask extends RecursiveTask<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<TileTask> tasks;
+
+        PhaseTask(List<TileTask> tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected Void compute() {
+            invokeAll(tasks);
+            return null;
+        }
+    }
+
+    // Floods one tile and returns true if a square at the edge of the tile got a lower water height.
+    private class TileTask extends RecursiveTask<Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        private final int tileRow;
+        private final int tileColumn;
+
+        TileTask(int tileRow, int tileColumn) {
+            this.tileRow = tileRow;
+            this.tileColumn = tileColumn;
+        }
+
+        @Override
+        protected Boolean compute() {
+            int firstRow = tileRow * tileSize;
+            int lastRow = Math.min(firstRow + tileSize, rows) - 1;
+            int firstColumn = tileColumn * tileSize;
+            int lastColumn = Math.min(firstColumn + tileSize, columns) - 1;
+            CellHeap heap = new CellHeap(4 * tileSize);
+            boolean edgeChanged = false;
+            // Stage 2: squares at the edge of the tile get the spill level through their neighbours in other tiles.
+            // Only the squares whose water height decreases are put into the heap, so flooding a tile again only
+            // visits the squares that change. The most outer walls of the map are always put into the heap, since
+            // the flood starts from them.
+            for (int row = firstRow; row <= lastRow; row++) {
+                boolean fullRow = row == firstRow || row == lastRow;
+                int step = fullRow ? 1 : Math.max(lastColumn - firstColumn, 1);
+                for (int column = firstColumn; column <= lastColumn; column += step) {
+                    int cell = row * columns + column;
+                    if (row == 0 || row == rows - 1 || column == 0 || column == columns - 1) {
+                        heap.push(levels.get(cell), cell);
+                        continue;
+                    }
+                    int level = spillThroughOtherTiles(row, column, firstRow, lastRow, firstColumn, lastColumn);
+                    if (level < levels.get(cell)) {
+                        levels.set(cell, level);
+                        heap.push(level, cell);
+                        edgeChanged = true;
+                    }
+                }
+            }
+            // Flood the tile like the priority flood, but a square is visited again when it gets a lower water
+            // height. Older entries of a square in the heap are skipped.
+            while (!heap.isEmpty()) {
+                int level = heap.peekKey();
+                int cell = heap.pop();
+                if (level > levels.get(cell)) {
+                    continue;
+                }
+                int row = cell / columns;
+                int column = cell % columns;
+                for (int i = Math.max(row - 1, firstRow); i <= Math.min(row + 1, lastRow); i++) {
+                    for (int j = Math.max(column - 1, firstColumn); j <= Math.min(column + 1, lastColumn); j++) {
+                        int neighbour = i * columns + j;
+                        int wall = heights.get(neighbour);
+                        int neighbourLevel = wall < level ? level : wall;
+                        if (neighbourLevel < levels.get(neighbour)) {
+                            levels.set(neighbour, neighbourLevel);
+                            heap.push(neighbourLevel, neighbour);
+                            // Stage 3: tiles around are flooded again if the edge changes.
+                            if (i == firstRow || i == lastRow || j == firstColumn || j == lastColumn) {
+                                edgeChanged = true;
+                            }
+                        }
+                    }
+                }
+            }
+            return edgeChanged;
+        }
+
+        // Returns the lowest water height that a square can have by leaking into a neighbour outside of the tile.
+        private int spillThroughOtherTiles(int row, int column, int firstRow, int lastRow, int firstColumn,
+                                           int lastColumn) {
+            int wall = heights.get(row, column);
+            int level = UNKNOWN;
+            for (int i = row - 1; i <= row + 1; i++) {
+                for (int j = column - 1; j <= column + 1; j++) {
+                    if (i >= firstRow && i <= lastRow && j >= firstColumn && j <= lastColumn) {
+                        continue;
+                    }
+                    int neighbourLevel = levels.get(i, j);
+                    if (neighbourLevel != UNKNOWN) {
+                        level = Math.min(level, wall < neighbourLevel ? neighbourLevel : wall);
+                    }
+                }
+            }
+            return level;
+        }
+    }
+}
@@ -1,25 +1,155 @@
 // This class takes a map, and it calculates the water stored between its walls.
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
 public class WaterCalculator {
+    // There are three engines. PRIORITY_FLOOD starts from the outer walls and floods the map from the lowest wall to the
+    // highest one. It is the reference engine and the default. PARALLEL_FLOOD splits the map into tiles and floods them
+    // in more than one thread (see TiledWaterSolver), and it gives the same water levels as PRIORITY_FLOOD. Both floods
+    // visit runs instead of squares when the heights are kept in a RunLengthGrid (see RunWaterSolver).
+    // FRAME_SWEEP is the original frame by frame traverse. It doesn't give the same water levels on every map: it
+    // misses some water which leaks diagonally to the outer walls, so it keeps water which should flow out (e.g. a
+    // square of height 0 whose diagonal neighbour is an outer wall of height 0). On a few maps it doesn't end or it
+    // fails. It gives the same water as the floods on the input files of the project.
+    public enum Engine {
+        FRAME_SWEEP,
+        PRIORITY_FLOOD,
+        PARALLEL_FLOOD
+    }
+
+    // Pools of PARALLEL_FLOOD for each number of threads. They are shared by all calculators, so programs which solve
+    // many maps (BatchSolver, SolveServer) don't start new threads for each map. Their threads are daemon threads, so
+    // they don't keep the program running.
+    private static final ConcurrentHashMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
     private GameMap map;
+    private Engine engine;
+    // Number of threads used by PARALLEL_FLOOD.
+    private int parallelism;
+    // Squares of a row or a column which are not calculated yet (-1 in tempHeights) are always contiguous, because the
+    // frame sweep only calculates the ends of them. So for each row and column the first and the last uncalculated
+    // squares are kept, and the next calculated square is found without walking over the -1 entries.
+    private int[] rowStart;
+    private int[] rowEnd;
+    private int[] columnStart;
+    private int[] columnEnd;
+    // Frames traversed by the last frame sweep, and the times it went back to an outer frame (see PipelineMetrics).
+    private long framePasses;
+    private long goOuterRestarts;
 
     public WaterCalculator(GameMap map) {
+        this(map, Engine.PRIORITY_FLOOD);
+    }
+
+    public WaterCalculator(GameMap map, Engine engine) {
+        this(map, engine, Runtime.getRuntime().availableProcessors());
+    }
+
+    public WaterCalculator(GameMap map, Engine engine, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism should be at least 1: " + parallelism);
+        }
         this.map = map;
+        this.engine = engine;
+        this.parallelism = parallelism;
     }
 
     // This method calculates minimum water level(for a square if its neighbours have water over themselves, their wall
     // level is calculated like wall level + water height. For a square if its neighbour has water, it is also
     // like a wall for current square because some wall around neighbour, covers neighbour square, these walls will also
     // cover current square. If they don't, levels are recalculated).
-    private int findMinimum(int... numbers) {
+    // It takes exactly eight neighbours instead of varargs, so no array is created for each square.
+    private static int findMinimum(int first, int second, int third, int fourth, int fifth, int sixth, int seventh,
+                                   int eighth) {
         int lowestWall = Integer.MAX_VALUE;
-        for (int num : numbers) {
-            if (num < lowestWall && num != -1) {
-                lowestWall = num;
-            }
-        }
+        lowestWall = lowerWall(lowestWall, first);
+        lowestWall = lowerWall(lowestWall, second);
+        lowestWall = lowerWall(lowestWall, third);
+        lowestWall = lowerWall(lowestWall, fourth);
+        lowestWall = lowerWall(lowestWall, fifth);
+        lowestWall = lowerWall(lowestWall, sixth);
+        lowestWall = lowerWall(lowestWall, seventh);
+        lowestWall = lowerWall(lowestWall, eighth);
         return lowestWall;
     }
 
+    private static int lowerWall(int lowestWall, int num) {
+        return num < lowestWall && num != -1 ? num : lowestWall;
+    }
+
+    // Returns the column of the first calculated square in the given row, starting from given column and going right.
+    private int nextCalculatedRight(int row, int column) {
+        if (column >= rowStart[row] && column <= rowEnd[row]) {
+            return rowEnd[row] + 1;
+        }
+        return column;
+    }
+
+    // Returns the row of the first calculated square in the given column, starting from given row and going down.
+    private int nextCalculatedDown(int column, int row) {
+        if (row >= columnStart[column] && row <= columnEnd[column]) {
+            return columnEnd[column] + 1;
+        }
+        return row;
+    }
+
+    // Returns the row of the first calculated square in the given column, starting from given row and going up.
+    private int nextCalculatedUp(int column, int row) {
+        if (row >= columnStart[column] && row <= columnEnd[column]) {
+            return columnStart[column] - 1;
+        }
+        return row;
+    }
+
+    // When a square gets its first water height, it is removed from the uncalculated squares of its row and column.
+    // It is always at one end of them.
+    private void markCalculated(int row, int column) {
+        if (column == rowStart[row]) {
+            rowStart[row]++;
+        } else if (column == rowEnd[row]) {
+            rowEnd[row]--;
+        }
+        if (row == columnStart[column]) {
+            columnStart[column]++;
+        } else if (row == columnEnd[column]) {
+            columnEnd[column]--;
+        }
+    }
+
+    // This method calculates water levels with the selected engine and returns a map that stores these water levels.
+    public GameMap calculateWaterLevels() {
+        PipelineMetrics.Timer timer = PipelineMetrics.start(PipelineMetrics.Stage.WATER);
+        GameMap result;
+        if (engine == Engine.FRAME_SWEEP) {
+            result = calculateWithFrameSweep();
+            timer.count(PipelineMetrics.Counter.FRAME_PASSES, framePasses);
+            timer.count(PipelineMetrics.Counter.GO_OUTER_RESTARTS, goOuterRestarts);
+        } else if (isRunLength()) {
+            result = new GameMap(new RunWaterSolver((RunLengthGrid) map.getHeightGrid()).solve());
+        } else if (engine == Engine.PARALLEL_FLOOD) {
+            result = calculateWithParallelFlood();
+        } else {
+            result = calculateWithPriorityFlood();
+        }
+        timer.stop();
+        return result;
+    }
+
+    // Maps with 2 or fewer rows or columns are left to the other engines, since they return the walls for them.
+    private boolean isRunLength() {
+        Grid heights = map.getHeightGrid();
+        return heights instanceof RunLengthGrid && heights.getRowNumber() > 2 && heights.getColumnNumber() > 2;
+    }
+
+    public long getFramePasses() {
+        return framePasses;
+    }
+
+    public long getGoOuterRestarts() {
+        return goOuterRestarts;
+    }
+
     // This method calculates water levels and returns a map that stores these water levels.
     // Water level and water height is not the same in this context.
     // Water levels are calculated like that: Height that water reaches - wall height.
@@ -43,31 +173,36 @@ public class WaterCalculator {
     // move into the outer frame and recalculate its water heights. By doing this we also take diagonal leaks into account.
     // 7: After calculating water heights for every square, subtract wall heights from calculated water heights and this
     // will give water level for current square.
-    public GameMap calculateWaterLevels() {
-        int[][] heights = map.getHeights();
-        int[][] tempHeights = new int[heights.length][heights[0].length];
-        String[][] tempNames = new String[heights.length][heights[0].length];
+    private GameMap calculateWithFrameSweep() {
+        Grid heights = map.getHeightGrid();
+        Grid tempHeights = heights.blank();
         // Stage 2
-        for (int row = 0; row < heights.length; row++) {
-            for (int column = 0; column < heights[0].length; column++) {
-                tempNames[row][column] = "";
-                if (row == 0 || row == heights.length - 1 || column == 0 || column == heights[0].length - 1) {
-                    tempHeights[row][column] = heights[row][column];
-                } else {
-                    tempHeights[row][column] = -1;
-                }
-            }
-        }
+        GridKernels.get().seedFrame(tempHeights, heights, -1);
         // Stage 1
-        if (heights.length <= 2 || heights[0].length <= 2) {
+        if (heights.getRowNumber() <= 2 || heights.getColumnNumber() <= 2) {
             return new GameMap(tempHeights);
         }
+        rowStart = new int[heights.getRowNumber()];
+        rowEnd = new int[heights.getRowNumber()];
+        columnStart = new int[heights.getColumnNumber()];
+        columnEnd = new int[heights.getColumnNumber()];
+        for (int row = 1; row < heights.getRowNumber() - 1; row++) {
+            rowStart[row] = 1;
+            rowEnd[row] = heights.getColumnNumber() - 2;
+        }
+        for (int column = 1; column < heights.getColumnNumber() - 1; column++) {
+            columnStart[column] = 1;
+            columnEnd[column] = heights.getRowNumber() - 2;
+        }
         int leftBoundary = 1;
-        int rightBoundary = heights[0].length - 2;
+        int rightBoundary = heights.getColumnNumber() - 2;
         int upperBoundary = 1;
-        int lowerBoundary = heights.length - 2;
+        int lowerBoundary = heights.getRowNumber() - 2;
+        framePasses = 0;
+        goOuterRestarts = 0;
         // Stage 3 and 4
         while (leftBoundary <= rightBoundary && upperBoundary <= lowerBoundary) {
+            framePasses++;
             boolean hasChanged = false;
             boolean goOuter = false;
             // For upper edge of the frame(all edges are calculated similarly, just some indexes differ.)
@@ -83,58 +218,47 @@ public class WaterCalculator {
                 int rightLowerWall = -1;
                 int leftLowerWall = -1;
 
-                leftWall = tempHeights[upperBoundary][i - 1];
-                upperWall = tempHeights[upperBoundary - 1][i];
-                rightUpperWall = tempHeights[upperBoundary - 1][i + 1];
-                leftUpperWall = tempHeights[upperBoundary - 1][i - 1];
+                leftWall = tempHeights.get(upperBoundary, i - 1);
+                upperWall = tempHeights.get(upperBoundary - 1, i);
+                rightUpperWall = tempHeights.get(upperBoundary - 1, i + 1);
+                leftUpperWall = tempHeights.get(upperBoundary - 1, i - 1);
 
-                for (int k = upperBoundary + 1; k < heights.length; k++) {
-                    if (tempHeights[k][i] == -1) {
-                        continue;
-                    }
-                    lowerWall = tempHeights[k][i];
-                    break;
-                }
-                for (int k = i + 1; k < heights[0].length; k++) {
-                    if (tempHeights[upperBoundary][k] == -1) {
-                        continue;
-                    }
-                    rightWall = tempHeights[upperBoundary][k];
-                    break;
-                }
+                lowerWall = tempHeights.get(nextCalculatedDown(i, upperBoundary + 1), i);
+                rightWall = tempHeights.get(upperBoundary, nextCalculatedRight(upperBoundary, i + 1));
 
-                rightLowerWall = tempHeights[upperBoundary + 1][i + 1];
-                leftLowerWall = tempHeights[upperBoundary + 1][i - 1];
+                rightLowerWall = tempHeights.get(upperBoundary + 1, i + 1);
+                leftLowerWall = tempHeights.get(upperBoundary + 1, i - 1);
 
                 // Find the minimum water levels in the neighbours
                 int minWall = findMinimum(rightWall, leftWall, upperWall, lowerWall, rightUpperWall, leftUpperWall, rightLowerWall, leftLowerWall);
                 //Stage 6
-                if (leftUpperWall != rightUpperWall && tempHeights[upperBoundary - 1][i - 1] - heights[upperBoundary - 1][i - 1] > 0 &&
-                        tempHeights[upperBoundary - 1][i + 1] - heights[upperBoundary - 1][i + 1] > 0 &&
+                if (leftUpperWall != rightUpperWall && tempHeights.get(upperBoundary - 1, i - 1) - heights.get(upperBoundary - 1, i - 1) > 0 &&
+                        tempHeights.get(upperBoundary - 1, i + 1) - heights.get(upperBoundary - 1, i + 1) > 0 &&
                         lowerBoundary - upperBoundary > 1 && rightBoundary - leftBoundary > 1) {
                     goOuter = true;
                 }
-                if (leftLowerWall != rightLowerWall && tempHeights[upperBoundary + 1][i - 1] - heights[upperBoundary + 1][i - 1] > 0 &&
-                        tempHeights[upperBoundary + 1][i + 1] - heights[upperBoundary + 1][i + 1] > 0 &&
+                if (leftLowerWall != rightLowerWall && tempHeights.get(upperBoundary + 1, i - 1) - heights.get(upperBoundary + 1, i - 1) > 0 &&
+                        tempHeights.get(upperBoundary + 1, i + 1) - heights.get(upperBoundary + 1, i + 1) > 0 &&
                         lowerBoundary - upperBoundary > 1 && rightBoundary - leftBoundary > 1) {
                     goOuter = true;
                 }
                 // Stage 3
-                int currentLevel = tempHeights[upperBoundary][i];
-                int currentWall = heights[upperBoundary][i];
+                int currentLevel = tempHeights.get(upperBoundary, i);
+                int currentWall = heights.get(upperBoundary, i);
                 if (currentLevel == -1) {
                     currentLevel = currentWall < minWall ? minWall : currentWall;
-                    tempHeights[upperBoundary][i] = currentLevel;
+                    tempHeights.set(upperBoundary, i, currentLevel);
+                    markCalculated(upperBoundary, i);
                     hasChanged = true;
                 } else if (currentLevel != minWall) {
                     if (currentWall <= minWall) {
                         currentLevel = minWall;
-                        tempHeights[upperBoundary][i] = currentLevel;
+                        tempHeights.set(upperBoundary, i, currentLevel);
                         hasChanged = true;
                     } else {
                         if (currentWall != currentLevel) {
                             currentLevel = currentWall;
-                            tempHeights[upperBoundary][i] = currentLevel;
+                            tempHeights.set(upperBoundary, i, currentLevel);
                             hasChanged = true;
                         }
                     }
@@ -144,6 +268,7 @@ public class WaterCalculator {
                 }
             }
             if (goOuter) {
+                goOuterRestarts++;
                 rightBoundary++;
                 upperBoundary--;
                 lowerBoundary++;
@@ -163,50 +288,39 @@ public class WaterCalculator {
                     int rightLowerWall = -1;
                     int leftLowerWall = -1;
 
-                    leftWall = tempHeights[i][boundary - 1];
-                    upperWall = tempHeights[i - 1][boundary];
-                    rightUpperWall = tempHeights[i][boundary + 1];
-                    leftUpperWall = tempHeights[i][boundary - 1];
+                    leftWall = tempHeights.get(i, boundary - 1);
+                    upperWall = tempHeights.get(i - 1, boundary);
+                    rightUpperWall = tempHeights.get(i, boundary + 1);
+                    leftUpperWall = tempHeights.get(i, boundary - 1);
 
-                    for (int k = i + 1; k < heights.length; k++) {
-                        if (tempHeights[k][boundary] == -1) {
-                            continue;
-                        }
-                        lowerWall = tempHeights[k][boundary];
-                        break;
-                    }
-                    for (int k = boundary + 1; k < heights[0].length; k++) {
-                        if (tempHeights[i][k] == -1) {
-                            continue;
-                        }
-                        rightWall = tempHeights[i][k];
-                        break;
-                    }
-                    rightLowerWall = tempHeights[i + 1][boundary + 1];
-                    leftLowerWall = tempHeights[i + 1][boundary - 1];
+                    lowerWall = tempHeights.get(nextCalculatedDown(boundary, i + 1), boundary);
+                    rightWall = tempHeights.get(i, nextCalculatedRight(i, boundary + 1));
+                    rightLowerWall = tempHeights.get(i + 1, boundary + 1);
+                    leftLowerWall = tempHeights.get(i + 1, boundary - 1);
                     int minWall = findMinimum(rightWall, leftWall, upperWall, lowerWall, rightUpperWall, leftUpperWall, rightLowerWall, leftLowerWall);
-                    if (leftUpperWall != rightUpperWall && tempHeights[i - 1][boundary - 1] - heights[i - 1][boundary - 1] > 0 && tempHeights[i - 1][boundary + 1] - heights[i - 1][boundary + 1] > 0 && lowerBoundary - upperBoundary > 1 && rightBoundary - leftBoundary > 1) {
+                    if (leftUpperWall != rightUpperWall && tempHeights.get(i - 1, boundary - 1) - heights.get(i - 1, boundary - 1) > 0 && tempHeights.get(i - 1, boundary + 1) - heights.get(i - 1, boundary + 1) > 0 && lowerBoundary - upperBoundary > 1 && rightBoundary - leftBoundary > 1) {
                         goOuter = true;
                     }
-                    if (leftLowerWall != rightLowerWall && tempHeights[i + 1][boundary - 1] - heights[i + 1][boundary - 1] > 0 && tempHeights[i + 1][boundary + 1] - heights[i + 1][boundary + 1] > 0 && lowerBoundary - upperBoundary > 1 && rightBoundary - leftBoundary > 1) {
+                    if (leftLowerWall != rightLowerWall && tempHeights.get(i + 1, boundary - 1) - heights.get(i + 1, boundary - 1) > 0 && tempHeights.get(i + 1, boundary + 1) - heights.get(i + 1, boundary + 1) > 0 && lowerBoundary - upperBoundary > 1 && rightBoundary - leftBoundary > 1) {
                         goOuter = true;
                     }
 
-                    int currentLevel = tempHeights[i][boundary];
-                    int currentWall = heights[i][boundary];
+                    int currentLevel = tempHeights.get(i, boundary);
+                    int currentWall = heights.get(i, boundary);
                     if (currentLevel == -1) {
                         currentLevel = currentWall < minWall ? minWall : currentWall;
-                        tempHeights[i][boundary] = currentLevel;
+                        tempHeights.set(i, boundary, currentLevel);
+                        markCalculated(i, boundary);
                         hasChanged = true;
                     } else if (currentLevel != minWall) {
                         if (currentWall <= minWall) {
                             currentLevel = minWall;
-                            tempHeights[i][boundary] = currentLevel;
+                            tempHeights.set(i, boundary, currentLevel);
                             hasChanged = true;
                         } else {
                             if (currentWall != currentLevel) {
                                 currentLevel = currentWall;
-                                tempHeights[i][boundary] = currentLevel;
+                                tempHeights.set(i, boundary, currentLevel);
                                 hasChanged = true;
                             }
                         }
@@ -221,6 +335,7 @@ public class WaterCalculator {
             }
 
             if (goOuter) {
+                goOuterRestarts++;
                 rightBoundary++;
                 upperBoundary--;
                 lowerBoundary++;
@@ -238,50 +353,39 @@ public class WaterCalculator {
                 int rightLowerWall = -1;
                 int leftLowerWall = -1;
 
-                leftWall = tempHeights[lowerBoundary][i - 1];
-                upperWall = tempHeights[lowerBoundary - 1][i];
-                rightUpperWall = tempHeights[lowerBoundary - 1][i + 1];
-                leftUpperWall = tempHeights[lowerBoundary - 1][i - 1];
+                leftWall = tempHeights.get(lowerBoundary, i - 1);
+                upperWall = tempHeights.get(lowerBoundary - 1, i);
+                rightUpperWall = tempHeights.get(lowerBoundary - 1, i + 1);
+                leftUpperWall = tempHeights.get(lowerBoundary - 1, i - 1);
 
-                for (int k = lowerBoundary - 1; k >= 0; k--) {
-                    if (tempHeights[k][i] == -1) {
-                        continue;
-                    }
-                    upperWall = tempHeights[k][i];
-                    break;
-                }
-                for (int k = i + 1; k < heights[0].length; k++) {
-                    if (tempHeights[lowerBoundary][k] == -1) {
-                        continue;
-                    }
-                    rightWall = tempHeights[lowerBoundary][k];
-                    break;
-                }
-                rightLowerWall = tempHeights[lowerBoundary + 1][i + 1];
-                leftLowerWall = tempHeights[lowerBoundary + 1][i - 1];
+                upperWall = tempHeights.get(nextCalculatedUp(i, lowerBoundary - 1), i);
+                rightWall = tempHeights.get(lowerBoundary, nextCalculatedRight(lowerBoundary, i + 1));
+                rightLowerWall = tempHeights.get(lowerBoundary + 1, i + 1);
+                leftLowerWall = tempHeights.get(lowerBoundary + 1, i - 1);
                 int minWall = findMinimum(rightWall, leftWall, upperWall, lowerWall, rightUpperWall, leftUpperWall, rightLowerWall, leftLowerWall);
-                if (leftUpperWall != rightUpperWall && tempHeights[lowerBoundary - 1][i - 1] - heights[lowerBoundary - 1][i - 1] > 0 && tempHeights[lowerBoundary - 1][i + 1] - heights[lowerBoundary - 1][i + 1] > 0 && lowerBoundary - upperBoundary > 1 && rightBoundary - leftBoundary > 1) {
+                if (leftUpperWall != rightUpperWall && tempHeights.get(lowerBoundary - 1, i - 1) - heights.get(lowerBoundary - 1, i - 1) > 0 && tempHeights.get(lowerBoundary - 1, i + 1) - heights.get(lowerBoundary - 1, i + 1) > 0 && lowerBoundary - upperBoundary > 1 && rightBoundary - leftBoundary > 1) {
                     goOuter = true;
                 }
-                if (leftLowerWall != rightLowerWall && tempHeights[lowerBoundary + 1][i - 1] - heights[lowerBoundary + 1][i - 1] > 0 && tempHeights[lowerBoundary + 1][i + 1] - heights[lowerBoundary + 1][i + 1] > 0 && lowerBoundary - upperBoundary > 1 && rightBoundary - leftBoundary > 1) {
+                if (leftLowerWall != rightLowerWall && tempHeights.get(lowerBoundary + 1, i - 1) - heights.get(lowerBoundary + 1, i - 1) > 0 && tempHeights.get(lowerBoundary + 1, i + 1) - heights.get(lowerBoundary + 1, i + 1) > 0 && lowerBoundary - upperBoundary > 1 && rightBoundary - leftBoundary > 1) {
                     goOuter = true;
                 }
 
-                int currentLevel = tempHeights[lowerBoundary][i];
-                int currentWall = heights[lowerBoundary][i];
+                int currentLevel = tempHeights.get(lowerBoundary, i);
+                int currentWall = heights.get(lowerBoundary, i);
                 if (currentLevel == -1) {
                     currentLevel = currentWall < minWall ? minWall : currentWall;
-                    tempHeights[lowerBoundary][i] = currentLevel;
+                    tempHeights.set(lowerBoundary, i, currentLevel);
+                    markCalculated(lowerBoundary, i);
                     hasChanged = true;
                 } else if (currentLevel != minWall) {
                     if (currentWall <= minWall) {
                         currentLevel = minWall;
-                        tempHeights[lowerBoundary][i] = currentLevel;
+                        tempHeights.set(lowerBoundary, i, currentLevel);
                         hasChanged = true;
                     } else {
                         if (currentWall != currentLevel) {
                             currentLevel = currentWall;
-                            tempHeights[lowerBoundary][i] = currentLevel;
+                            tempHeights.set(lowerBoundary, i, currentLevel);
                             hasChanged = true;
                         }
                     }
@@ -292,6 +396,7 @@ public class WaterCalculator {
             }
             // Stage 6
             if (goOuter) {
+                goOuterRestarts++;
                 rightBoundary++;
                 upperBoundary--;
                 lowerBoundary++;
@@ -307,11 +412,89 @@ public class WaterCalculator {
             }
         }
         // Stage 7
-        for (int i = 0; i < tempHeights.length; i++) {
-            for (int j = 0; j < tempHeights[0].length; j++) {
-                tempHeights[i][j] -= heights[i][j];
+        GridKernels.get().subtract(tempHeights, heights);
+
+        return new GameMap(tempHeights);
+    }
+
+    // This method calculates the water levels by flooding the map from its outer walls, and every square is visited only
+    // once. Water which leaks diagonally is always followed, so this is the reference for the other engines (the frame
+    // sweep can give more water, see Engine). Calculation is like that:
+    // 1 and 2: Same as the frame sweep. The most outer walls are put into tempHeights as they are and they are put into
+    // a min-heap.
+    // 3: Take the square with the lowest water height from the heap. Water that reaches this height can't be held
+    // higher by any unvisited neighbour, because every way out of the neighbour passes through a square that is at
+    // least this high. So for each unvisited neighbour the water height is the maximum of its wall and the current
+    // water height. Put the neighbour into the heap.
+    // 4: Diagonal neighbours are also visited, since walls leak water in diagonal direction. This is the rule of
+    // Stage 6 of the frame sweep, but here it is used for every square.
+    // 5: When the heap is empty, subtract wall heights from calculated water heights like Stage 7.
+    private GameMap calculateWithPriorityFlood() {
+        Grid heights = map.getHeightGrid();
+        int rows = heights.getRowNumber();
+        int columns = heights.getColumnNumber();
+        Grid tempHeights = heights.blank();
+        boolean[] visited = new boolean[heights.size()];
+        CellHeap heap = new CellHeap(2 * (rows + columns));
+        // Stage 2
+        GridKernels.get().seedFrame(tempHeights, heights, -1);
+        for (int row = 0; row < rows; row++) {
+            // Inner squares of a row are skipped, only the first and the last squares are outer walls.
+            int step = row == 0 || row == rows - 1 ? 1 : Math.max(columns - 1, 1);
+            for (int column = 0; column < columns; column += step) {
+                int cell = row * columns + column;
+                visited[cell] = true;
+                heap.push(heights.get(cell), cell);
             }
         }
+        // Stage 1
+        if (rows <= 2 || columns <= 2) {
+            return new GameMap(tempHeights);
+        }
+        // Stage 3 and 4
+        while (!heap.isEmpty()) {
+            int level = heap.peekKey();
+            int cell = heap.pop();
+            int row = cell / columns;
+            int column = cell % columns;
+            for (int i = row - 1; i <= row + 1; i++) {
+                if (i < 0 || i >= rows) {
+                    continue;
+                }
+                for (int j = column - 1; j <= column + 1; j++) {
+                    int neighbour = i * columns + j;
+                    if (j < 0 || j >= columns || visited[neighbour]) {
+                        continue;
+                    }
+                    visited[neighbour] = true;
+                    int neighbourLevel = heights.get(neighbour) < level ? level : heights.get(neighbour);
+                    tempHeights.set(neighbour, neighbourLevel);
+                    heap.push(neighbourLevel, neighbour);
+                }
+            }
+        }
+        // Stage 5
+        GridKernels.get().subtract(tempHeights, heights);
+
+        return new GameMap(tempHeights);
+    }
+
+    // This method calculates the same water levels as the priority flood with TiledWaterSolver. Tiles are chosen so
+    // that there are about four tiles for each thread, but they are never smaller than 32 x 32 squares.
+    private GameMap calculateWithParallelFlood() {
+        Grid heights = map.getHeightGrid();
+        int rows = heights.getRowNumber();
+        int columns = heights.getColumnNumber();
+        // Stage 1
+        if (rows <= 2 || columns <= 2) {
+            return calculateWithPriorityFlood();
+        }
+        int tileSize = (int) Math.ceil(Math.max(rows, columns) / (2 * Math.sqrt(parallelism)));
+        tileSize = Math.max(tileSize, 32);
+        ForkJoinPool pool = POOLS.computeIfAbsent(parallelism, ForkJoinPool::new);
+        Grid tempHeights = new TiledWaterSolver(heights, tileSize).solve(pool);
+        // Stage 7
+        GridKernels.get().subtract(tempHeights, heights);
 
         return new GameMap(tempHeights);
     }
@@ -0,0 +1,138 @@
+// This class scores many sets of stones on the same map. Usage:
+// java WhatIfSolver <input file> <scenario file> [number of threads]
+// Each line of the scenario file is a set of stones given by their coordinates, e.g. "b2 c3 c3". Empty lines and lines
+// starting with # are skipped. The map is solved once, and each set of stones is added to an overlay of that solver
+// (see IncrementalSolver.overlay), which keeps only the squares changed by the stones. So a set of stones needs memory
+// for the squares it changes and not a copy of the map. Sets are scored in parallel, and the results are in the order
+// of the sets.
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class WhatIfSolver {
+    private final IncrementalSolver solver;
+
+    public WhatIfSolver(GameMap map) {
+        // The map itself is not changed, and the overlays share the grids of this solver.
+        this.solver = new IncrementalSolver(map).copy();
+    }
+
+    public static final class Result {
+        // Squares of the stones in the order they are added.
+        public final int[] stones;
+        public final double score;
+        // Volumes of the lakes in the order of their names.
+        public final long[] volumes;
+        // Number of squares kept by the overlay, see IncrementalSolver.getOverlaySize.
+        public final int changedSquares;
+
+        Result(int[] stones, double score, long[] volumes, int changedSquares) {
+            this.stones = stones;
+            this.score = score;
+            this.volumes = volumes;
+            this.changedSquares = changedSquares;
+        }
+    }
+
+    public Result evaluate(int[] stones) {
+        IncrementalSolver overlay = solver.overlay();
+        for (int stone : stones) {
+            if (stone < 0 || stone >= overlay.getHeightGrid().size()) {
+                throw new IllegalArgumentException("Stone is not in the map: " + stone);
+            }
+            overlay.addStone(stone);
+        }
+        return new Result(stones, overlay.getScore(), overlay.getLakeVolumes(), overlay.getOverlaySize());
+    }
+
+    // Scores the sets of stones with given number of threads. Each set gets its own overlay, so the memory of the
+    // running sets depends only on their changed squares.
+    public List<Result> evaluate(List<int[]> scenarios, int threads) throws InterruptedException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be at least 1");
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (int[] stones : scenarios) {
+                futures.add(pool.submit(() -> evaluate(stones)));
+            }
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof IllegalArgumentException) {
+                        throw (IllegalArgumentException) ex.getCause();
+                    }
+                    throw new IllegalStateException(ex.getCause());
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Reads the sets of stones from a scenario file.
+    private static List<int[]> readScenarios(String path, GameMap map) throws IOException {
+        List<int[]> scenarios = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(Paths.get(path))) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] coordinates = line.split("\\s+");
+            int[] stones = new int[coordinates.length];
+            for (int i = 0; i < coordinates.length; i++) {
+                stones[i] = map.parseCoordinate(coordinates[i]);
+                if (stones[i] == -1) {
+                    throw new IllegalArgumentException("Not a valid coordinate in line " + lineNumber + ": "
+                            + coordinates[i]);
+                }
+            }
+            scenarios.add(stones);
+        }
+        return scenarios;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 3) {
+            System.out.println("Usage: java WhatIfSolver <input file> <scenario file> [number of threads]");
+            System.exit(1);
+        }
+        try {
+            int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+            GameMap map = new GameMap(args[0]);
+            List<int[]> scenarios = readScenarios(args[1], map);
+            long start = System.nanoTime();
+            List<Result> results = new WhatIfSolver(map).evaluate(scenarios, threads);
+            long nanos = System.nanoTime() - start;
+            int columns = map.getHeightGrid().getColumnNumber();
+            for (Result result : results) {
+                StringBuilder stones = new StringBuilder();
+                for (int stone : result.stones) {
+                    stones.append(stones.length() == 0 ? "" : " ").append(GameMap.coordinateOf(stone, columns));
+                }
+                System.out.printf("%s: score %.2f, lakes %s, changed squares %d%n", stones, result.score,
+                        Arrays.toString(result.volumes), result.changedSquares);
+            }
+            System.out.printf("Scored %d sets in %.1f ms%n", results.size(), nanos / 1e6);
+        } catch (IllegalArgumentException | IOException ex) {
+            System.out.println(ex.getMessage());
+            System.exit(1);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+// This class runs the loops of GridKernels with the Vector API. The preferred vector size of the CPU is used, e.g. 16
+// ints with AVX-512, and the squares which don't fill a whole vector at the end are done one by one.
+// selectLakes chooses the lakes of a whole vector at once. Vectors without a lake are skipped, and the water of a
+// vector whose squares are all in the same lake is added at once. In other vectors volumes are added one square at a
+// time, since squares of a vector may belong to the same lake. This class is loaded by GridKernels.get, it shouldn't
+// be created by other classes.
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+public final class VectorGridKernels extends GridKernels {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    @Override
+    public String name() {
+        return "vector" + SPECIES.vectorBitSize();
+    }
+
+    @Override
+    protected void fill(int[] values, int from, int to, int value) {
+        IntVector vector = IntVector.broadcast(SPECIES, value);
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+            vector.intoArray(values, i);
+        }
+        for (; i < to; i++) {
+            values[i] = value;
+        }
+    }
+
+    @Override
+    protected void subtract(int[] values, int[] other, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            IntVector.fromArray(SPECIES, values, i).sub(IntVector.fromArray(SPECIES, other, i)).intoArray(values, i);
+        }
+        for (; i < length; i++) {
+            values[i] -= other[i];
+        }
+    }
+
+    @Override
+    protected long[] selectLakes(int[] water, int[] lakes, int[] result, int length, long[] volumes) {
+        IntVector zero = IntVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            IntVector waterVector = IntVector.fromArray(SPECIES, water, i);
+            IntVector lakeVector = IntVector.fromArray(SPECIES, lakes, i);
+            VectorMask<Integer> hasLake = waterVector.compare(VectorOperators.NE, 0)
+                    .and(lakeVector.compare(VectorOperators.NE, 0));
+            zero.blend(lakeVector, hasLake).intoArray(result, i);
+            if (!hasLake.anyTrue()) {
+                continue;
+            }
+            int firstLake = lakes[i];
+            if (hasLake.allTrue() && lakeVector.compare(VectorOperators.EQ, firstLake).allTrue()) {
+                volumes = addVolume(volumes, firstLake, waterVector.reduceLanes(VectorOperators.ADD));
+                continue;
+            }
+            for (int square = i; square < i + SPECIES.length(); square++) {
+                if (water[square] != 0 && lakes[square] != 0) {
+                    volumes = addVolume(volumes, lakes[square], water[square]);
+                }
+            }
+        }
+        for (; i < length; i++) {
+            int lake = lakes[i];
+            int currentWater = water[i];
+            if (currentWater != 0 && lake != 0) {
+                result[i] = lake;
+                volumes = addVolume(volumes, lake, currentWater);
+            } else {
+                result[i] = 0;
+            }
+        }
+        return volumes;
+    }
+}